@@ -0,0 +1,300 @@
+package com.cs.comp7502;
+
+import com.cs.comp7502.classifier.CascadedClassifier;
+import com.cs.comp7502.utils.ImageUtils;
+import com.cs.comp7502.utils.IntegralImage;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Headless face detection over a folder of images or a numbered frame sequence.
+ *
+ * Images are decoded and scanned by a pool of workers with the scale aware detection of {@link Detector}, the
+ * detections are written in input order as JSON Lines or CSV and throughput statistics are printed at the end. An image
+ * that cannot be read is reported on stderr and skipped, the rest of the batch goes on.
+ *
+ * <pre>
+ * java com.cs.comp7502.BatchDetector --cascade cascade.json --input res/testImages --output faces.jsonl
+ * java com.cs.comp7502.BatchDetector --input frames/frame_%05d.png --format csv --threads 4 --min-size 48
+ * </pre>
+ */
+public class BatchDetector {
+
+    public enum Format {
+        JSONL,
+        CSV
+    }
+
+    private static final String USAGE = "usage: BatchDetector --input <directory | frame pattern such as frame_%05d.png>\n"
+            + "  [--output <file>] [--format jsonl|csv] [--threads <n>] [--start <first frame>]\n" + DetectionOptions.USAGE;
+
+    private final Detector detector = new Detector();
+    private final CascadedClassifier cascadedClassifier;
+    private DetectionParams detectionParams = new DetectionParams();
+    private Format format = Format.JSONL;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    // integral image of each worker, reused from one image to the next
+    private final ThreadLocal<IntegralImage> integralImages = new ThreadLocal<>();
+
+    public BatchDetector(CascadedClassifier cascadedClassifier) {
+        this.cascadedClassifier = cascadedClassifier;
+    }
+
+    public DetectionParams getDetectionParams() {
+        return detectionParams;
+    }
+
+    public void setDetectionParams(DetectionParams detectionParams) {
+        this.detectionParams = detectionParams;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public void setFormat(Format format) {
+        this.format = format;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Detects the faces of every image and writes them to out in the order of the images, images that cannot be read
+     * are skipped and counted as failures
+     *
+     * @param images image files
+     * @param out    destination of the detections
+     * @return throughput statistics of the run
+     */
+    public BatchStats run(List<File> images, Writer out) throws IOException, InterruptedException {
+        detector.resetWindowsEvaluated();
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        long time = System.nanoTime();
+        List<Long> latencies = new ArrayList<>();
+        int failures = 0;
+        try {
+            List<Future<Result>> results = new ArrayList<>();
+            for (File image : images) {
+                results.add(workers.submit(() -> detect(image)));
+            }
+
+            if (format == Format.CSV) out.write("image,x,y,width,height\n");
+            for (int i = 0; i < results.size(); i++) {
+                Result result;
+                try {
+                    result = results.get(i).get();
+                } catch (ExecutionException e) {
+                    if (!(e.getCause() instanceof IOException)) throw new RuntimeException(e.getCause());
+                    System.err.println("skipping " + images.get(i) + ": " + e.getCause().getMessage());
+                    failures++;
+                    continue;
+                }
+                latencies.add(result.nanos);
+                write(result, out);
+            }
+            out.flush();
+        } finally {
+            workers.shutdownNow();
+        }
+        return new BatchStats(images.size(), failures, System.nanoTime() - time, latencies, detector.getWindowsEvaluated());
+    }
+
+    private Result detect(File file) throws IOException {
+        long time = System.nanoTime();
+        BufferedImage image = ImageIO.read(file);
+        if (image == null) throw new IOException("cannot decode " + file);
+
+        IntegralImage integralI = ImageUtils.buildIntegralImage(image, integralImages.get(), detector.needsWindowStats());
+        integralImages.set(integralI);
+        List<Rectangle> faces = detector.detectFaces(integralI, cascadedClassifier, detectionParams);
+        return new Result(file, image.getWidth(), image.getHeight(), faces, System.nanoTime() - time);
+    }
+
+    private void write(Result result, Writer out) throws IOException {
+        if (format == Format.CSV) {
+            for (Rectangle face : result.faces) {
+                out.write(csvField(result.file.getPath()) + "," + face.x + "," + face.y + "," + face.width + "," + face.height + "\n");
+            }
+            return;
+        }
+
+        JSONObject line = new JSONObject();
+        try {
+            line.put("image", result.file.getPath());
+            line.put("width", result.width);
+            line.put("height", result.height);
+            line.put("millis", result.nanos / 1e6);
+            line.put("faces", DetectionOptions.encodeFaces(result.faces));
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+        out.write(line.toString() + "\n");
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0) return value;
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * @param input directory, whose images are taken in name order, or a frame pattern such as frame_%05d.png whose
+     *              frames are taken from start until the first missing one
+     */
+    public static List<File> listImages(String input, int start) {
+        List<File> images = new ArrayList<>();
+        if (input.contains("%")) {
+            for (int i = start; ; i++) {
+                File frame = new File(String.format(input, i));
+                if (!frame.isFile()) break;
+                images.add(frame);
+            }
+            return images;
+        }
+
+        File[] files = new File(input).listFiles();
+        if (files == null) throw new IllegalArgumentException(input + " is not a directory");
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName().toLowerCase();
+            if (file.isFile() && (name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".bmp") || name.endsWith(".gif"))) {
+                images.add(file);
+            }
+        }
+        return images;
+    }
+
+    public static void main(String[] args) throws Exception {
+        DetectionOptions options = null;
+        String input = null;
+        Format format = Format.JSONL;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int start = 0;
+        try {
+            options = DetectionOptions.parse(args, "--input", "--output", "--format", "--threads", "--start");
+            input = options.get("--input");
+            if (input == null) throw new IllegalArgumentException("--input is required");
+            format = Format.valueOf(options.get("--format", format.name()).toUpperCase());
+            threads = options.getInt("--threads", threads);
+            start = options.getInt("--start", start);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        String output = options.get("--output");
+
+        BatchDetector batchDetector = new BatchDetector(options.loadCascadedClassifier());
+        batchDetector.setDetectionParams(options.getDetectionParams());
+        batchDetector.setFormat(format);
+        batchDetector.setThreads(threads);
+
+        List<File> images = listImages(input, start);
+        BatchStats stats;
+        if (output == null) {
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+            stats = batchDetector.run(images, out);
+        } else {
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8))) {
+                stats = batchDetector.run(images, out);
+            }
+        }
+        // the detections may go to stdout, so the statistics go to stderr
+        System.err.println(stats);
+    }
+
+    private static class Result {
+        final File file;
+        final int width;
+        final int height;
+        final List<Rectangle> faces;
+        final long nanos;
+
+        Result(File file, int width, int height, List<Rectangle> faces, long nanos) {
+            this.file = file;
+            this.width = width;
+            this.height = height;
+            this.faces = faces;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * Throughput of one batch run, latencies are the decoding and detection time of each image
+     */
+    public static class BatchStats {
+        private final int images;
+        private final int failures;
+        private final long nanos;
+        private final List<Long> latencies;
+        private final long windowsEvaluated;
+
+        BatchStats(int images, int failures, long nanos, List<Long> latencies, long windowsEvaluated) {
+            this.images = images;
+            this.failures = failures;
+            this.nanos = nanos;
+            this.latencies = new ArrayList<>(latencies);
+            Collections.sort(this.latencies);
+            this.windowsEvaluated = windowsEvaluated;
+        }
+
+        public int getImages() {
+            return images;
+        }
+
+        /**
+         * @return images skipped because they could not be read
+         */
+        public int getFailures() {
+            return failures;
+        }
+
+        public double getSeconds() {
+            return nanos / 1e9;
+        }
+
+        public double getImagesPerSecond() {
+            return nanos == 0 ? 0 : images / getSeconds();
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return latency in milliseconds below which that percentage of the images were processed
+         */
+        public double getLatencyMillis(double percentile) {
+            if (latencies.isEmpty()) return 0;
+            int index = (int) Math.ceil(percentile / 100 * latencies.size()) - 1;
+            return latencies.get(Math.max(0, Math.min(latencies.size() - 1, index))) / 1e6;
+        }
+
+        public long getWindowsEvaluated() {
+            return windowsEvaluated;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("images: %d, failed: %d, time: %.2fs, images/sec: %.1f, latency p50: %.1fms, p99: %.1fms, windows evaluated: %d",
+                    images, failures, getSeconds(), getImagesPerSecond(), getLatencyMillis(50), getLatencyMillis(99), windowsEvaluated);
+        }
+    }
+}
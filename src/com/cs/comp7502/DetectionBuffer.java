@@ -0,0 +1,87 @@
+package com.cs.comp7502;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Detected windows stored in int arrays, which only grow, so a buffer that is cleared and refilled for every frame
+ * stops allocating once it has held the largest number of detections.
+ *
+ * As in {@link Rectangle} x is the column and y the row of the top left corner, windows are square.
+ */
+public class DetectionBuffer {
+
+    private int[] x = new int[16];
+    private int[] y = new int[16];
+    private int[] size = new int[16];
+    private int count;
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * @param x    column of the window
+     * @param y    row of the window
+     * @param size width and height of the window
+     */
+    public void add(int x, int y, int size) {
+        if (count == this.x.length) {
+            int capacity = 2 * count;
+            this.x = Arrays.copyOf(this.x, capacity);
+            this.y = Arrays.copyOf(this.y, capacity);
+            this.size = Arrays.copyOf(this.size, capacity);
+        }
+        this.x[count] = x;
+        this.y[count] = y;
+        this.size[count] = size;
+        count++;
+    }
+
+    public void addAll(DetectionBuffer buffer) {
+        for (int i = 0; i < buffer.count; i++) {
+            add(buffer.x[i], buffer.y[i], buffer.size[i]);
+        }
+    }
+
+    /**
+     * Drops every window after the first count ones
+     */
+    public void truncate(int count) {
+        this.count = Math.min(this.count, count);
+    }
+
+    public int getX(int i) {
+        return x[i];
+    }
+
+    public int getY(int i) {
+        return y[i];
+    }
+
+    public int getSize(int i) {
+        return size[i];
+    }
+
+    public Rectangle getRectangle(int i) {
+        return new Rectangle(x[i], y[i], size[i], size[i]);
+    }
+
+    public List<Rectangle> toRectangles() {
+        List<Rectangle> rectangles = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            rectangles.add(getRectangle(i));
+        }
+        return rectangles;
+    }
+}
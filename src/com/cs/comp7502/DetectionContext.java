@@ -0,0 +1,52 @@
+package com.cs.comp7502;
+
+import com.cs.comp7502.classifier.CascadedClassifier;
+import com.cs.comp7502.utils.IntegralImage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scratch buffers of the detection of one video stream, passed to
+ * {@link Detector#detectFaces(int[][], CascadedClassifier, DetectionParams, DetectionContext)} for every frame.
+ *
+ * It keeps the integral image, sized to the largest frame seen, the result buffer and the list of scales to scan,
+ * which is only rebuilt when the frame size, the cascade or the parameters change. Once the buffers have grown to
+ * their steady size a detection on a sequential detector allocates nothing. A context must not be shared between
+ * threads, and the returned buffer is overwritten by the next detection.
+ */
+public class DetectionContext {
+
+    private final IntegralImage integralImage = new IntegralImage(0, 0);
+    private final DetectionBuffer detections = new DetectionBuffer();
+
+    // scan plan of the last detection and what it was built for
+    final List<Detector.ScanLevel> levels = new ArrayList<>();
+    private IntegralImage planImage;
+    private int planWidth;
+    private int planHeight;
+    private CascadedClassifier planCascade;
+    private DetectionParams planParams;
+
+    public IntegralImage getIntegralImage() {
+        return integralImage;
+    }
+
+    public DetectionBuffer getDetections() {
+        return detections;
+    }
+
+    boolean isPlanFor(IntegralImage integralI, CascadedClassifier cascadedClassifier, DetectionParams params) {
+        return planImage == integralI && planWidth == integralI.getWidth() && planHeight == integralI.getHeight()
+                && planCascade == cascadedClassifier && params.equals(planParams);
+    }
+
+    void setPlan(IntegralImage integralI, CascadedClassifier cascadedClassifier, DetectionParams params) {
+        planImage = integralI;
+        planWidth = integralI.getWidth();
+        planHeight = integralI.getHeight();
+        planCascade = cascadedClassifier;
+        // copied, so changing the parameters afterwards rebuilds the plan
+        planParams = new DetectionParams(params);
+    }
+}
@@ -0,0 +1,22 @@
+package com.cs.comp7502;
+
+import java.awt.*;
+
+/**
+ * Receives each window as soon as it passes the last stage of the cascade, while the rest of the frame is still being
+ * scanned, e.g. to start blurring or cropping a face early or to stop at the first face.
+ *
+ * With a parallel {@link Detector} the windows come from the worker threads in no particular order, so the listener
+ * must be thread safe.
+ */
+public interface DetectionListener {
+
+    /**
+     * @param window detected window in input coordinates, x is the column and y the row
+     * @param scale  size of the window relative to the 24x24 training window
+     * @param score  margin of the window over the threshold of the last stage, larger is more confident
+     * @return true to keep scanning, false to stop the scan. A parallel scan may still report the windows that other
+     * threads found at the same time
+     */
+    boolean onDetection(Rectangle window, double scale, double score);
+}
@@ -0,0 +1,110 @@
+package com.cs.comp7502;
+
+import com.cs.comp7502.classifier.CascadedClassifier;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Command line shared by the headless tools {@link BatchDetector} and {@link DetectionServer}: pairs of options and
+ * values, of which the cascade and the scan parameters are common to both tools, and the JSON form of the faces they
+ * report.
+ */
+public class DetectionOptions {
+
+    public static final String USAGE = "  [--cascade <file>] [--min-size <px>] [--max-size <px>] [--step <fraction>]"
+            + " [--scale-factor <f>] [--max-detections <n>]";
+
+    private String cascade = "./cascadedClassifiers/cascade_classifier_default.json";
+    private final DetectionParams params = new DetectionParams();
+    // options of the tool itself
+    private final Map<String, String> options = new HashMap<>();
+
+    /**
+     * @param args  command line arguments
+     * @param names options of the tool besides the common ones, such as "--port"
+     * @throws IllegalArgumentException for an unknown option, a missing value or a number that does not parse
+     */
+    public static DetectionOptions parse(String[] args, String... names) {
+        List<String> toolOptions = Arrays.asList(names);
+        DetectionOptions detectionOptions = new DetectionOptions();
+        DetectionParams params = detectionOptions.params;
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 >= args.length) throw new IllegalArgumentException("missing value for " + args[i]);
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--cascade": detectionOptions.cascade = value; break;
+                case "--min-size": params.setMinFaceSize(Integer.parseInt(value)); break;
+                case "--max-size": params.setMaxFaceSize(Integer.parseInt(value)); break;
+                case "--step": params.setStepFraction(Double.parseDouble(value)); break;
+                case "--scale-factor": params.setScaleFactor(Double.parseDouble(value)); break;
+                case "--max-detections": params.setMaxDetections(Integer.parseInt(value)); break;
+                default:
+                    if (!toolOptions.contains(args[i])) throw new IllegalArgumentException("unknown option " + args[i]);
+                    detectionOptions.options.put(args[i], value);
+            }
+        }
+        return detectionOptions;
+    }
+
+    public DetectionParams getDetectionParams() {
+        return params;
+    }
+
+    /**
+     * @return value of an option of the tool, or null if it is not given
+     */
+    public String get(String name) {
+        return options.get(name);
+    }
+
+    public String get(String name, String defaultValue) {
+        return options.containsKey(name) ? options.get(name) : defaultValue;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the value is not a number
+     */
+    public int getInt(String name, int defaultValue) {
+        return options.containsKey(name) ? Integer.parseInt(options.get(name)) : defaultValue;
+    }
+
+    /**
+     * @return cascade read from the --cascade file, or from the default cascade
+     */
+    public CascadedClassifier loadCascadedClassifier() throws IOException, JSONException {
+        CascadedClassifier cascadedClassifier = new CascadedClassifier();
+        cascadedClassifier.decode(new JSONObject(new String(Files.readAllBytes(new File(cascade).toPath()), StandardCharsets.UTF_8)));
+        return cascadedClassifier;
+    }
+
+    /**
+     * @return faces as [{"x", "y", "width", "height"}], in image coordinates
+     */
+    public static JSONArray encodeFaces(List<Rectangle> faces) {
+        JSONArray jsonFaces = new JSONArray();
+        try {
+            for (Rectangle face : faces) {
+                JSONObject jsonFace = new JSONObject();
+                jsonFace.put("x", face.x);
+                jsonFace.put("y", face.y);
+                jsonFace.put("width", face.width);
+                jsonFace.put("height", face.height);
+                jsonFaces.put(jsonFace);
+            }
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+        return jsonFaces;
+    }
+}
@@ -0,0 +1,103 @@
+package com.cs.comp7502;
+
+/**
+ * Scan parameters of the cascade detector.
+ *
+ * The defaults scan every window size from 24 pixels up to the image size with a step of a quarter of the window,
+ * which is what {@link Detector} always did. Bounding the face size to what a camera actually sees skips whole scales.
+ */
+public class DetectionParams {
+
+    private int minFaceSize = 24;
+    private int maxFaceSize = Integer.MAX_VALUE;
+    // step between two windows as a fraction of the window size
+    private double stepFraction = 0.25;
+    // growth of the window between two scales for the scale aware detection
+    private double scaleFactor = 1.25;
+    private int maxDetections = Integer.MAX_VALUE;
+
+    public DetectionParams() {
+    }
+
+    public DetectionParams(DetectionParams params) {
+        this.minFaceSize = params.minFaceSize;
+        this.maxFaceSize = params.maxFaceSize;
+        this.stepFraction = params.stepFraction;
+        this.scaleFactor = params.scaleFactor;
+        this.maxDetections = params.maxDetections;
+    }
+
+    public int getMinFaceSize() {
+        return minFaceSize;
+    }
+
+    public void setMinFaceSize(int minFaceSize) {
+        this.minFaceSize = minFaceSize;
+    }
+
+    public int getMaxFaceSize() {
+        return maxFaceSize;
+    }
+
+    public void setMaxFaceSize(int maxFaceSize) {
+        this.maxFaceSize = maxFaceSize;
+    }
+
+    public double getStepFraction() {
+        return stepFraction;
+    }
+
+    public void setStepFraction(double stepFraction) {
+        this.stepFraction = stepFraction;
+    }
+
+    public double getScaleFactor() {
+        return scaleFactor;
+    }
+
+    public void setScaleFactor(double scaleFactor) {
+        this.scaleFactor = scaleFactor;
+    }
+
+    public int getMaxDetections() {
+        return maxDetections;
+    }
+
+    public void setMaxDetections(int maxDetections) {
+        this.maxDetections = maxDetections;
+    }
+
+    /**
+     * @return step between two windows of the given size, at least 1 pixel
+     */
+    public int getStep(int winSize) {
+        return Math.max(1, (int) (winSize * stepFraction));
+    }
+
+    /**
+     * @return true if faces of the given size are searched
+     */
+    public boolean accepts(int faceSize) {
+        return faceSize >= minFaceSize && faceSize <= maxFaceSize;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof DetectionParams)) return false;
+        DetectionParams params = (DetectionParams) o;
+        return minFaceSize == params.minFaceSize && maxFaceSize == params.maxFaceSize
+                && stepFraction == params.stepFraction && scaleFactor == params.scaleFactor
+                && maxDetections == params.maxDetections;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = minFaceSize;
+        result = 31 * result + maxFaceSize;
+        result = 31 * result + Double.hashCode(stepFraction);
+        result = 31 * result + Double.hashCode(scaleFactor);
+        result = 31 * result + maxDetections;
+        return result;
+    }
+}
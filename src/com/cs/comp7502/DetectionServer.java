@@ -0,0 +1,348 @@
+package com.cs.comp7502;
+
+import com.cs.comp7502.classifier.CascadedClassifier;
+import com.cs.comp7502.utils.ImageUtils;
+import com.cs.comp7502.utils.IntegralImage;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Face detection served over HTTP on the local machine, e.g. as a sidecar of another service.
+ *
+ * <pre>
+ * POST /detect   body: PNG, JPEG, BMP or GIF bytes   returns {"width", "height", "millis", "faces": [{"x", "y", "width", "height"}]}
+ * GET  /stats    returns the request counts and the latency percentiles of the recent detections
+ * </pre>
+ *
+ * The cascade is loaded once and shared by every request. Requests are accepted by the server thread and handed to a
+ * fixed pool of workers through a bounded queue, a request arriving when the queue is full is answered right away
+ * with 503 so that a burst cannot pile up unbounded work. A body larger than the maximum body size is answered with
+ * 413 without being read in full. Each worker reuses its integral image from one request to the next.
+ *
+ * <pre>
+ * java com.cs.comp7502.DetectionServer --port 8080 --threads 4 --queue 16 --min-size 48
+ * </pre>
+ */
+public class DetectionServer {
+
+    private static final String USAGE = "usage: DetectionServer [--port <port>] [--threads <n>] [--queue <n>] [--max-body <bytes>]\n"
+            + DetectionOptions.USAGE;
+
+    // number of recent detections the latency percentiles are computed from
+    private static final int LATENCY_WINDOW = 1024;
+
+    private final Detector detector;
+    private final CascadedClassifier cascadedClassifier;
+    private DetectionParams detectionParams = new DetectionParams();
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int queueCapacity = 16;
+    private int maxBodySize = 16 * 1024 * 1024;
+
+    private HttpServer server;
+    private ThreadPoolExecutor workers;
+    // integral image of each worker, reused from one request to the next
+    private final ThreadLocal<IntegralImage> integralImages = new ThreadLocal<>();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    // ring of the latencies of the last LATENCY_WINDOW detections in nanoseconds
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private long latencyCount;
+
+    public DetectionServer(CascadedClassifier cascadedClassifier) {
+        this(new Detector(), cascadedClassifier);
+    }
+
+    /**
+     * @param detector           detector shared by the workers, it must be sequential since the workers already run
+     *                           the requests in parallel
+     * @param cascadedClassifier cascade trained on 24x24 windows
+     */
+    public DetectionServer(Detector detector, CascadedClassifier cascadedClassifier) {
+        this.detector = detector;
+        this.cascadedClassifier = cascadedClassifier;
+    }
+
+    public DetectionParams getDetectionParams() {
+        return detectionParams;
+    }
+
+    public void setDetectionParams(DetectionParams detectionParams) {
+        this.detectionParams = detectionParams;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * @param queueCapacity number of requests waiting for a worker beyond which requests are rejected with 503
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    /**
+     * @param maxBodySize number of bytes of an image beyond which requests are rejected with 413
+     */
+    public void setMaxBodySize(int maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * Starts listening on the loopback interface
+     *
+     * @param port port to listen on, 0 for any free port
+     */
+    public void start(int port) throws IOException {
+        start(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    public void start(InetSocketAddress address) throws IOException {
+        if (server != null) throw new IllegalStateException("already started");
+        workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity),
+                new ThreadPoolExecutor.AbortPolicy());
+        server = HttpServer.create(address, 0);
+        server.createContext("/detect", this::handleDetect);
+        server.createContext("/stats", this::handleStats);
+        // the handlers run on the server thread, they only queue the detections
+        server.setExecutor(null);
+        server.start();
+    }
+
+    /**
+     * @return port the server listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops accepting requests and waits up to delay seconds for the running ones
+     */
+    public void stop(int delay) {
+        if (server == null) return;
+        server.stop(delay);
+        workers.shutdownNow();
+        server = null;
+    }
+
+    /**
+     * @return requests waiting for a worker
+     */
+    public int getQueuedRequests() {
+        return workers == null ? 0 : workers.getQueue().size();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return latency in milliseconds, from the arrival of the request to the response, below which that percentage of
+     * the recent detections were answered
+     */
+    public double getLatencyMillis(double percentile) {
+        long[] sorted;
+        synchronized (latencies) {
+            sorted = Arrays.copyOf(latencies, (int) Math.min(latencyCount, LATENCY_WINDOW));
+        }
+        if (sorted.length == 0) return 0;
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+    }
+
+    private void handleDetect(HttpExchange exchange) throws IOException {
+        long time = System.nanoTime();
+        requests.incrementAndGet();
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            send(exchange, 405, error("POST an image to /detect"));
+            return;
+        }
+        // a declared length is checked before queueing, a chunked body while it is read
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (contentLength != null && isTooLarge(contentLength)) {
+            failed.incrementAndGet();
+            send(exchange, 413, error("image larger than " + maxBodySize + " bytes"));
+            return;
+        }
+        try {
+            workers.execute(() -> detect(exchange, time));
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            send(exchange, 503, error("too many requests"));
+        }
+    }
+
+    private void detect(HttpExchange exchange, long time) {
+        try {
+            byte[] body = readBody(exchange, maxBodySize);
+            if (body == null) {
+                failed.incrementAndGet();
+                send(exchange, 413, error("image larger than " + maxBodySize + " bytes"));
+                return;
+            }
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(body));
+            if (image == null) {
+                failed.incrementAndGet();
+                send(exchange, 400, error("cannot decode the image"));
+                return;
+            }
+
+            IntegralImage integralI = ImageUtils.buildIntegralImage(image, integralImages.get(), detector.needsWindowStats());
+            integralImages.set(integralI);
+            List<Rectangle> faces = detector.detectFaces(integralI, cascadedClassifier, detectionParams);
+
+            JSONObject response = new JSONObject();
+            response.put("width", image.getWidth());
+            response.put("height", image.getHeight());
+            response.put("millis", (System.nanoTime() - time) / 1e6);
+            response.put("faces", DetectionOptions.encodeFaces(faces));
+            send(exchange, 200, response);
+            recordLatency(System.nanoTime() - time);
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            try {
+                send(exchange, 500, error(String.valueOf(e.getMessage())));
+            } catch (IOException ignored) {
+                // the client is gone
+            }
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        JSONObject response = new JSONObject();
+        try {
+            response.put("requests", getRequests());
+            response.put("rejected", getRejected());
+            response.put("failed", getFailed());
+            response.put("queued", getQueuedRequests());
+            response.put("latencyP50", getLatencyMillis(50));
+            response.put("latencyP90", getLatencyMillis(90));
+            response.put("latencyP99", getLatencyMillis(99));
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+        send(exchange, 200, response);
+    }
+
+    private void recordLatency(long nanos) {
+        synchronized (latencies) {
+            latencies[(int) (latencyCount % LATENCY_WINDOW)] = nanos;
+            latencyCount++;
+        }
+    }
+
+    private boolean isTooLarge(String contentLength) {
+        try {
+            return Long.parseLong(contentLength.trim()) > maxBodySize;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return body of the request, or null if it is longer than maxBodySize
+     */
+    private static byte[] readBody(HttpExchange exchange, int maxBodySize) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int read; (read = in.read(buffer)) > 0; ) {
+                if (body.size() + read > maxBodySize) return null;
+                body.write(buffer, 0, read);
+            }
+            return body.toByteArray();
+        }
+    }
+
+    private static JSONObject error(String message) {
+        JSONObject error = new JSONObject();
+        try {
+            error.put("error", message);
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+        return error;
+    }
+
+    private static void send(HttpExchange exchange, int status, JSONObject body) throws IOException {
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        DetectionOptions options = null;
+        int port = 8080;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int queueCapacity = 16;
+        int maxBodySize = 16 * 1024 * 1024;
+        try {
+            options = DetectionOptions.parse(args, "--port", "--threads", "--queue", "--max-body");
+            port = options.getInt("--port", port);
+            threads = options.getInt("--threads", threads);
+            queueCapacity = options.getInt("--queue", queueCapacity);
+            maxBodySize = options.getInt("--max-body", maxBodySize);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+
+        DetectionServer detectionServer = new DetectionServer(options.loadCascadedClassifier());
+        detectionServer.setDetectionParams(options.getDetectionParams());
+        detectionServer.setThreads(threads);
+        detectionServer.setQueueCapacity(queueCapacity);
+        detectionServer.setMaxBodySize(maxBodySize);
+        detectionServer.start(port);
+        System.err.println("listening on http://localhost:" + detectionServer.getPort() + "/detect");
+    }
+}
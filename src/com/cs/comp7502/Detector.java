@@ -1,16 +1,54 @@
 package com.cs.comp7502;
 
 import com.cs.comp7502.classifier.CascadedClassifier;
+import com.cs.comp7502.classifier.CompiledCascade;
 import com.cs.comp7502.classifier.Stage;
 import com.cs.comp7502.training.Trainer;
 import com.cs.comp7502.training.WHaarClassifier;
 import com.cs.comp7502.utils.ColourUtils;
+import com.cs.comp7502.utils.ImagePyramid;
+import com.cs.comp7502.utils.IntegralImage;
+import com.cs.comp7502.utils.MotionMask;
 
 import java.awt.*;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
-public class Detector {
+/**
+ * A detector created with a parallelism owns its fork join pool, {@link #close()} shuts it down
+ */
+public class Detector implements AutoCloseable {
+
+    // number of window rows in one unit of work when scanning in parallel
+    private static final int BAND_ROWS = 8;
+
+    // compiled forms of the last cascade passed in, keyed by window size
+    private CascadedClassifier compiledSource;
+    private Map<Integer, CompiledCascade> compiledCascades = new HashMap<>();
+
+    private ExecutorService executor;
+    // the executor was created by this detector and is shut down by close
+    private boolean ownsExecutor;
+
+    // normalise feature values by the window standard deviation, for cascades trained on normalised samples
+    private boolean varianceNormalisation;
+    // windows whose standard deviation is below this are rejected before the first stage
+    private double minStdDev;
+
+    private DetectionParams detectionParams = new DetectionParams();
+
+    // windows scanned by every detection so far, including the ones rejected by the window statistics
+    private final LongAdder windowsEvaluated = new LongAdder();
+    // windows left out because the motion mask found them static
+    private final LongAdder windowsSkipped = new LongAdder();
 
     /**
      * for testing
@@ -18,6 +56,82 @@ public class Detector {
     public Detector() {
     }
 
+    /**
+     * Creates a detector that splits the cascade scans into bands of rows per scale and runs them on the given
+     * executor, the results are the same as the ones of a sequential detector
+     *
+     * @param executor executor shared with the caller, it is not shut down by the detector
+     */
+    public Detector(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Creates a detector that scans on its own fork join pool, the pool is shut down by {@link #close()}
+     *
+     * @param parallelism number of worker threads
+     */
+    public Detector(int parallelism) {
+        this(new ForkJoinPool(parallelism));
+        this.ownsExecutor = true;
+    }
+
+    /**
+     * Shuts down the fork join pool of a detector created with {@link #Detector(int)}, an executor passed in by the
+     * caller is left running
+     */
+    @Override
+    public void close() {
+        if (ownsExecutor) executor.shutdown();
+    }
+
+    public boolean isVarianceNormalisation() {
+        return varianceNormalisation;
+    }
+
+    public void setVarianceNormalisation(boolean varianceNormalisation) {
+        this.varianceNormalisation = varianceNormalisation;
+    }
+
+    public double getMinStdDev() {
+        return minStdDev;
+    }
+
+    public void setMinStdDev(double minStdDev) {
+        this.minStdDev = minStdDev;
+    }
+
+    /**
+     * @return number of windows scanned by the cascade detections of this detector since it was created or reset
+     */
+    public long getWindowsEvaluated() {
+        return windowsEvaluated.sum();
+    }
+
+    /**
+     * @return number of windows left out by the motion mask since the detector was created or reset
+     */
+    public long getWindowsSkipped() {
+        return windowsSkipped.sum();
+    }
+
+    public void resetWindowsEvaluated() {
+        windowsEvaluated.reset();
+        windowsSkipped.reset();
+    }
+
+    public DetectionParams getDetectionParams() {
+        return detectionParams;
+    }
+
+    /**
+     * @param detectionParams face size bounds, step and detection cap used by every cascade detection path, the scale
+     *                        factor only by {@link #detectFaces(int[][], CascadedClassifier, DetectionParams)}
+     */
+    public void setDetectionParams(DetectionParams detectionParams) {
+        this.detectionParams = detectionParams;
+    }
+
     public java.util.List<Rectangle> detectFaces(int[][] input, Map<String, List<WHaarClassifier>> trainedClassifiers, double finalThreshold, double similarityThreshold) {
         ArrayList<Rectangle> rectangles = new ArrayList<>();
 
@@ -79,33 +193,622 @@ public class Detector {
     }
 
     public java.util.List<Rectangle> detectFaces(int[][] input, CascadedClassifier cascadedClassifier) {
-        ArrayList<Rectangle> rectangles = new ArrayList<>();
+        return detectFaces(input, compile(cascadedClassifier, 24));
+    }
+
+    public java.util.List<Rectangle> detectFaces(int[][] input, CompiledCascade cascadedClassifier) {
+        return detectFaces(buildIntegralImage(input), cascadedClassifier);
+    }
+
+    /**
+     * Detection on an integral image built by the caller, e.g. straight from the bytes of a video frame with
+     * {@link IntegralImage#buildFromBgr(byte[], boolean)}. It must have the squared integral image if
+     * {@link #needsWindowStats()}
+     */
+    public java.util.List<Rectangle> detectFaces(IntegralImage integralI, CascadedClassifier cascadedClassifier) {
+        return detectFaces(integralI, compile(cascadedClassifier, 24));
+    }
 
-        int height = input.length;
-        int width = input[0].length;
+    public java.util.List<Rectangle> detectFaces(IntegralImage integralI, CompiledCascade cascadedClassifier) {
+        checkWindowStats(integralI);
 
         // find max scale
         // for each possible window
         // run through cascading com.cs.comp7502.classifier and gt true or false
         // if true add the location to the image and the size of the window
+        List<ScanLevel> levels = new ArrayList<>();
+        addDoublingLevels(levels, integralI, 0, 0, null, integralI.getWidth(), integralI.getHeight(), cascadedClassifier, detectionParams);
+
+        return scan(levels, detectionParams.getMaxDetections());
+    }
+
+    /**
+     * Region of interest detection, only the windows that lie inside one of the regions grown by margin are scanned
+     * and the integral image is only built over the bounding box of those regions. The windows are the ones
+     * {@link #detectFaces(int[][], CascadedClassifier)} would scan, so the result is the part of the full scan that
+     * falls inside the regions
+     *
+     * @param input              grayscale image
+     * @param cascadedClassifier cascade trained on 24x24 windows
+     * @param regions            regions to search, e.g. motion areas or faces tracked in the previous frame
+     * @param margin             number of pixels added on every side of each region
+     * @return detected windows
+     */
+    public java.util.List<Rectangle> detectFaces(int[][] input, CascadedClassifier cascadedClassifier, List<Rectangle> regions, int margin) {
+        CompiledCascade compiled = compile(cascadedClassifier, 24);
+        List<Rectangle> grown = growRegions(input[0].length, input.length, regions, margin);
+        if (grown.isEmpty()) return new ArrayList<>();
+        Rectangle bounds = union(grown);
+
+        IntegralImage integralI = buildIntegralImage(input, bounds);
+        List<ScanLevel> levels = new ArrayList<>();
+        addDoublingLevels(levels, integralI, bounds.y, bounds.x, grown, bounds.width, bounds.height, compiled, detectionParams);
+
+        return scan(levels, detectionParams.getMaxDetections());
+    }
+
+    /**
+     * Region of interest version of {@link #detectFaces(int[][], CascadedClassifier, double)}
+     *
+     * @see #detectFaces(int[][], CascadedClassifier, List, int)
+     */
+    public java.util.List<Rectangle> detectFaces(int[][] input, CascadedClassifier cascadedClassifier, double scaleFactor, List<Rectangle> regions, int margin) {
+        return detectFaces(input, cascadedClassifier, withScaleFactor(scaleFactor), regions, margin);
+    }
+
+    /**
+     * Region of interest version of {@link #detectFaces(int[][], CascadedClassifier, DetectionParams)}
+     *
+     * @see #detectFaces(int[][], CascadedClassifier, List, int)
+     */
+    public java.util.List<Rectangle> detectFaces(int[][] input, CascadedClassifier cascadedClassifier, DetectionParams params, List<Rectangle> regions, int margin) {
+        if (params.getScaleFactor() <= 1) throw new IllegalArgumentException("scale factor must be larger than 1");
+        List<Rectangle> grown = growRegions(input[0].length, input.length, regions, margin);
+        if (grown.isEmpty()) return new ArrayList<>();
+        Rectangle bounds = union(grown);
+
+        IntegralImage integralI = buildIntegralImage(input, bounds);
+        List<ScanLevel> levels = new ArrayList<>();
+        addScaledLevels(levels, integralI, bounds.y, bounds.x, grown, bounds.width, bounds.height, cascadedClassifier, params);
+
+        return scan(levels, params.getMaxDetections());
+    }
+
+    /**
+     * Region of interest detection on an integral image of the whole frame built by the caller, only the windows
+     * inside the grown regions are evaluated
+     *
+     * @see #detectFaces(int[][], CascadedClassifier, DetectionParams, List, int)
+     */
+    public java.util.List<Rectangle> detectFaces(IntegralImage integralI, CascadedClassifier cascadedClassifier, DetectionParams params, List<Rectangle> regions, int margin) {
+        if (params.getScaleFactor() <= 1) throw new IllegalArgumentException("scale factor must be larger than 1");
+        checkWindowStats(integralI);
+        List<Rectangle> grown = growRegions(integralI.getWidth(), integralI.getHeight(), regions, margin);
+        if (grown.isEmpty()) return new ArrayList<>();
+        Rectangle bounds = union(grown);
+
+        List<ScanLevel> levels = new ArrayList<>();
+        addScaledLevels(levels, integralI, 0, 0, grown, bounds.width, bounds.height, cascadedClassifier, params);
+
+        return scan(levels, params.getMaxDetections());
+    }
+
+    /**
+     * @return the regions grown by margin and clipped to the image, empty ones are dropped
+     */
+    private static List<Rectangle> growRegions(int width, int height, List<Rectangle> regions, int margin) {
+        Rectangle image = new Rectangle(0, 0, width, height);
+        List<Rectangle> grown = new ArrayList<>();
+        for (Rectangle region : regions) {
+            Rectangle r = new Rectangle(region.x - margin, region.y - margin, region.width + 2 * margin, region.height + 2 * margin).intersection(image);
+            if (!r.isEmpty()) grown.add(r);
+        }
+        return grown;
+    }
+
+    private static Rectangle union(List<Rectangle> regions) {
+        Rectangle union = new Rectangle(regions.get(0));
+        for (Rectangle region : regions) {
+            union.add(region);
+        }
+        return union;
+    }
+
+    /**
+     * Scale aware detection, the window grows by scaleFactor each level and the features of the cascade are scaled
+     * along with it, so a large window costs the same as a 24x24 one and is evaluated over its whole area
+     *
+     * @param input              grayscale image
+     * @param cascadedClassifier cascade trained on 24x24 windows
+     * @param scaleFactor        growth of the window between two scales, e.g. 1.25
+     * @return detected windows
+     */
+    public java.util.List<Rectangle> detectFaces(int[][] input, CascadedClassifier cascadedClassifier, double scaleFactor) {
+        return detectFaces(input, cascadedClassifier, withScaleFactor(scaleFactor));
+    }
+
+    /**
+     * Scale aware detection with explicit scan parameters, the window grows by the scale factor of the parameters
+     * from 24 pixels and only the sizes between the minimum and maximum face size are scanned
+     *
+     * @param input              grayscale image
+     * @param cascadedClassifier cascade trained on 24x24 windows
+     * @param params             scan parameters, used instead of the ones of the detector
+     * @return detected windows
+     */
+    public java.util.List<Rectangle> detectFaces(int[][] input, CascadedClassifier cascadedClassifier, DetectionParams params) {
+        return detectFaces(buildIntegralImage(input), cascadedClassifier, params);
+    }
+
+    /**
+     * Scale aware detection on an integral image built by the caller
+     *
+     * @see #detectFaces(int[][], CascadedClassifier, DetectionParams)
+     */
+    public java.util.List<Rectangle> detectFaces(IntegralImage integralI, CascadedClassifier cascadedClassifier, DetectionParams params) {
+        return detectFaces(integralI, cascadedClassifier, params, (MotionMask) null);
+    }
+
+    /**
+     * Scale aware detection that leaves out the windows which do not overlap a moving block of the motion mask, the
+     * caller is expected to keep the detections of the previous frame in the static parts
+     *
+     * @param integralI          integral image of the frame
+     * @param cascadedClassifier cascade trained on 24x24 windows
+     * @param params             scan parameters
+     * @param motionMask         mask updated with this frame, or null to scan every window
+     * @return detected windows in the moving parts of the frame
+     * @see MotionDetector
+     */
+    public java.util.List<Rectangle> detectFaces(IntegralImage integralI, CascadedClassifier cascadedClassifier, DetectionParams params, MotionMask motionMask) {
+        return detectFaces(integralI, cascadedClassifier, params, motionMask, null);
+    }
+
+    /**
+     * Scale aware detection that reports every window to the listener as soon as it is found, see
+     * {@link DetectionListener}
+     *
+     * @param input              grayscale image
+     * @param cascadedClassifier cascade trained on 24x24 windows
+     * @param params             scan parameters
+     * @param listener           receives each detected window, returns false to stop the scan
+     * @return detected windows, up to the one at which the listener stopped the scan
+     */
+    public java.util.List<Rectangle> detectFaces(int[][] input, CascadedClassifier cascadedClassifier, DetectionParams params, DetectionListener listener) {
+        return detectFaces(buildIntegralImage(input), cascadedClassifier, params, listener);
+    }
+
+    /**
+     * Same as {@link #detectFaces(int[][], CascadedClassifier, DetectionParams, DetectionListener)} on an integral
+     * image built by the caller
+     */
+    public java.util.List<Rectangle> detectFaces(IntegralImage integralI, CascadedClassifier cascadedClassifier, DetectionParams params, DetectionListener listener) {
+        return detectFaces(integralI, cascadedClassifier, params, null, listener);
+    }
+
+    private List<Rectangle> detectFaces(IntegralImage integralI, CascadedClassifier cascadedClassifier, DetectionParams params,
+                                        MotionMask motionMask, DetectionListener listener) {
+        if (params.getScaleFactor() <= 1) throw new IllegalArgumentException("scale factor must be larger than 1");
+        checkWindowStats(integralI);
+
+        List<ScanLevel> levels = new ArrayList<>();
+        addScaledLevels(levels, integralI, 0, 0, null, integralI.getWidth(), integralI.getHeight(), cascadedClassifier, params);
+        for (ScanLevel level : levels) {
+            level.motionMask = motionMask;
+        }
+
+        DetectionBuffer detections = new DetectionBuffer();
+        scan(levels, params.getMaxDetections(), detections, listener);
+        return detections.toRectangles();
+    }
+
+    /**
+     * Scale aware detection that reuses the buffers of the context, see {@link DetectionContext}. With a sequential
+     * detector, repeated calls on frames of the same size allocate nothing
+     *
+     * @param input              grayscale image
+     * @param cascadedClassifier cascade trained on 24x24 windows
+     * @param params             scan parameters
+     * @param context            buffers of the stream the frame belongs to
+     * @return the result buffer of the context, overwritten by the next call
+     */
+    public DetectionBuffer detectFaces(int[][] input, CascadedClassifier cascadedClassifier, DetectionParams params, DetectionContext context) {
+        IntegralImage integralI = context.getIntegralImage();
+        integralI.resize(input[0].length, input.length);
+        integralI.build(input, needsWindowStats());
+        return detectFaces(integralI, cascadedClassifier, params, context);
+    }
+
+    /**
+     * Same as {@link #detectFaces(int[][], CascadedClassifier, DetectionParams, DetectionContext)} on an integral image
+     * built by the caller, e.g. the one of the context
+     */
+    public DetectionBuffer detectFaces(IntegralImage integralI, CascadedClassifier cascadedClassifier, DetectionParams params, DetectionContext context) {
+        if (params.getScaleFactor() <= 1) throw new IllegalArgumentException("scale factor must be larger than 1");
+        checkWindowStats(integralI);
+
+        if (!context.isPlanFor(integralI, cascadedClassifier, params)) {
+            context.levels.clear();
+            addScaledLevels(context.levels, integralI, 0, 0, null, integralI.getWidth(), integralI.getHeight(), cascadedClassifier, params);
+            context.setPlan(integralI, cascadedClassifier, params);
+        }
+
+        DetectionBuffer detections = context.getDetections();
+        detections.clear();
+        scan(context.levels, params.getMaxDetections(), detections, null);
+        return detections;
+    }
+
+    /**
+     * Presence only detection for callers that only need to know whether there is a face. The window sizes are scanned
+     * from the largest, which have the fewest windows, and the rows of each size from the centre of the image outwards,
+     * and the whole scan stops at the first window that passes every stage, on every worker of a parallel detector
+     *
+     * @param input              grayscale image
+     * @param cascadedClassifier cascade trained on 24x24 windows
+     * @param params             scan parameters, the maximum number of detections is ignored
+     * @return the first window found and the number of windows evaluated until then
+     */
+    public PresenceResult detectPresence(int[][] input, CascadedClassifier cascadedClassifier, DetectionParams params) {
+        return detectPresence(buildIntegralImage(input), cascadedClassifier, params);
+    }
+
+    /**
+     * Same as {@link #detectPresence(int[][], CascadedClassifier, DetectionParams)} on an integral image built by the
+     * caller
+     */
+    public PresenceResult detectPresence(IntegralImage integralI, CascadedClassifier cascadedClassifier, DetectionParams params) {
+        if (params.getScaleFactor() <= 1) throw new IllegalArgumentException("scale factor must be larger than 1");
+        checkWindowStats(integralI);
+
+        List<ScanLevel> levels = new ArrayList<>();
+        addScaledLevels(levels, integralI, 0, 0, null, integralI.getWidth(), integralI.getHeight(), cascadedClassifier, params);
+
+        // bands of rows, largest windows first and then by distance from the centre row
+        final List<int[]> bands = new ArrayList<>();
+        int bandRows = executor == null ? 1 : BAND_ROWS;
+        for (int l = levels.size() - 1; l >= 0; l--) {
+            ScanLevel level = levels.get(l);
+            int bandHeight = level.step * bandRows;
+            List<int[]> levelBands = new ArrayList<>();
+            for (int x = level.firstX; x <= level.lastX; x += bandHeight) {
+                levelBands.add(new int[] {l, x, Math.min(level.lastX, x + bandHeight - 1)});
+            }
+            final double centre = (integralI.getHeight() - level.winSize) / 2.0;
+            levelBands.sort(Comparator.comparingDouble(band -> Math.abs((band[1] + band[2]) / 2.0 - centre)));
+            bands.addAll(levelBands);
+        }
+
+        final AtomicReference<Rectangle> face = new AtomicReference<>();
+        final AtomicBoolean stopped = new AtomicBoolean();
+        final DetectionListener firstHit = (window, scale, score) -> {
+            face.compareAndSet(null, window);
+            return false;
+        };
+        long windows = 0;
+        if (executor == null) {
+            DetectionBuffer detections = new DetectionBuffer();
+            for (int[] band : bands) {
+                if (stopped.get()) break;
+                windows += scan(levels.get(band[0]), band[1], band[2], detections, Integer.MAX_VALUE, firstHit, stopped);
+            }
+            return new PresenceResult(face.get(), windows);
+        }
+
+        List<Callable<Long>> tasks = new ArrayList<>();
+        for (final int[] band : bands) {
+            final ScanLevel level = levels.get(band[0]);
+            tasks.add(() -> scan(level, band[1], band[2], new DetectionBuffer(), Integer.MAX_VALUE, firstHit, stopped));
+        }
+        try {
+            for (Future<Long> band : executor.invokeAll(tasks)) {
+                windows += band.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        return new PresenceResult(face.get(), windows);
+    }
+
+    /**
+     * Pyramid detection, the 24x24 cascade is run on every level of an image pyramid and the windows found on a level
+     * are scaled back to the input. The pyramid keeps its buffers, so passing the same one for every frame of a video
+     * avoids reallocating the levels and their integral images
+     *
+     * @param input              grayscale image
+     * @param cascadedClassifier cascade trained on 24x24 windows
+     * @param pyramid            pyramid to build the levels in, its scale factor sets the scales that are searched
+     * @return detected windows
+     */
+    public java.util.List<Rectangle> detectFaces(int[][] input, CascadedClassifier cascadedClassifier, ImagePyramid pyramid) {
+        pyramid.build(input, 24, needsWindowStats());
+        CompiledCascade compiled = compile(cascadedClassifier, 24);
+
+        List<ScanLevel> levels = new ArrayList<>();
+        for (int i = 0; i < pyramid.getLevelCount(); i++) {
+            // size of the 24 pixel window of the level in the input
+            int faceSize = (int) Math.round(24 * pyramid.getScale(i));
+            if (faceSize > detectionParams.getMaxFaceSize()) break;
+            if (!detectionParams.accepts(faceSize)) continue;
+            levels.add(new ScanLevel(pyramid.getIntegralImage(i), 24, detectionParams.getStep(24), compiled, pyramid.getScale(i)));
+        }
+
+        return scan(levels, detectionParams.getMaxDetections());
+    }
+
+    private DetectionParams withScaleFactor(double scaleFactor) {
+        DetectionParams params = new DetectionParams(detectionParams);
+        params.setScaleFactor(scaleFactor);
+        return params;
+    }
+
+    /**
+     * Window sizes 24, 48, 96... evaluated with the 24x24 cascade, the original scan of the project
+     */
+    private static void addDoublingLevels(List<ScanLevel> levels, IntegralImage integralI, int originX, int originY, List<Rectangle> regions,
+                                          int width, int height, CompiledCascade cascade, DetectionParams params) {
         for (int winSize = 24; (winSize <= width) && (winSize <= height); winSize *= 2) { // enlarge the size of sliding window twice each loop
-            for (int x = 0; x <= height - winSize; x+= winSize/4) {
-                for (int y = 0; y <= width - winSize; y+= winSize/4) {
-                    int[][] slidingWindow = new int[winSize][winSize];
+            if (winSize > params.getMaxFaceSize()) break;
+            if (!params.accepts(winSize)) continue;
+            levels.add(new ScanLevel(integralI, originX, originY, regions, winSize, params.getStep(winSize), cascade, 1));
+        }
+    }
 
-                    for (int i = 0; i < winSize; i++) {
-                        slidingWindow[i] = Arrays.copyOfRange(input[x + i], y, y + winSize);
-                    }
+    /**
+     * Window sizes growing by the scale factor of the parameters, each with the cascade scaled to its size. Sizes below
+     * the minimum face size are skipped rather than starting from it, so the sizes do not depend on the bounds
+     */
+    private void addScaledLevels(List<ScanLevel> levels, IntegralImage integralI, int originX, int originY, List<Rectangle> regions,
+                                 int width, int height, CascadedClassifier cascadedClassifier, DetectionParams params) {
+        int previousWinSize = 0;
+        for (double scale = 1; (int) (24 * scale) <= width && (int) (24 * scale) <= height; scale *= params.getScaleFactor()) {
+            int winSize = (int) (24 * scale);
+            if (winSize > params.getMaxFaceSize()) break;
+            if (winSize == previousWinSize || !params.accepts(winSize)) continue;
+            previousWinSize = winSize;
 
-                    if (cascadedClassifier.isFace(slidingWindow)) {
-                        Rectangle faceArea = new Rectangle(y, x, winSize, winSize);
-                        rectangles.add(faceArea);
+            levels.add(new ScanLevel(integralI, originX, originY, regions, winSize, params.getStep(winSize), compile(cascadedClassifier, winSize), 1));
+        }
+    }
+
+    /**
+     * one integral image for the whole frame, every window is evaluated in place. It has the squared integral image
+     * when {@link #needsWindowStats()}
+     */
+    public IntegralImage buildIntegralImage(int[][] input) {
+        IntegralImage integralI = new IntegralImage(input[0].length, input.length);
+        integralI.build(input, needsWindowStats());
+        return integralI;
+    }
+
+    /**
+     * integral image of the part of the frame inside bounds, bounds.x is the column and bounds.y the row
+     */
+    private IntegralImage buildIntegralImage(int[][] input, Rectangle bounds) {
+        IntegralImage integralI = new IntegralImage(bounds.width, bounds.height);
+        integralI.build(input, bounds.y, bounds.x, needsWindowStats());
+        return integralI;
+    }
+
+    /**
+     * @return true if the window mean and standard deviation are computed, which needs the squared integral image
+     */
+    public boolean needsWindowStats() {
+        return varianceNormalisation || minStdDev > 0;
+    }
+
+    private void checkWindowStats(IntegralImage integralI) {
+        if (needsWindowStats() && !integralI.hasSquared()) {
+            throw new IllegalArgumentException("the squared integral image is needed for the window statistics");
+        }
+    }
+
+    /**
+     * Scans every level, in parallel when the detector has an executor. Work units are one band of rows of one level
+     * and their results are concatenated in level, row, column order so the output is the same as the sequential scan.
+     * At most maxDetections windows are returned, the first ones in that order
+     */
+    private List<Rectangle> scan(List<ScanLevel> levels, int maxDetections) {
+        DetectionBuffer detections = new DetectionBuffer();
+        scan(levels, maxDetections, detections, null);
+        return detections.toRectangles();
+    }
+
+    /**
+     * @param listener receives each window as it is found and may stop the scan, or null
+     */
+    private void scan(List<ScanLevel> levels, final int maxDetections, DetectionBuffer detections, final DetectionListener listener) {
+        // set once the listener asks to stop, seen by every band
+        final AtomicBoolean stopped = listener == null ? null : new AtomicBoolean();
+        if (executor == null) {
+            for (int i = 0; i < levels.size(); i++) {
+                if (detections.size() >= maxDetections || (stopped != null && stopped.get())) break;
+                ScanLevel level = levels.get(i);
+                scan(level, level.firstX, level.lastX, detections, maxDetections, listener, stopped);
+            }
+            return;
+        }
+
+        List<Callable<DetectionBuffer>> tasks = new ArrayList<>();
+        for (final ScanLevel level : levels) {
+            int bandHeight = level.step * BAND_ROWS;
+            for (int x = level.firstX; x <= level.lastX; x += bandHeight) {
+                final int xStart = x;
+                final int xEnd = Math.min(level.lastX, x + bandHeight - 1);
+                tasks.add(() -> {
+                    DetectionBuffer band = new DetectionBuffer();
+                    scan(level, xStart, xEnd, band, maxDetections, listener, stopped);
+                    return band;
+                });
+            }
+        }
+
+        try {
+            for (Future<DetectionBuffer> band : executor.invokeAll(tasks)) {
+                detections.addAll(band.get());
+            }
+            detections.truncate(maxDetections);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Scans the windows of one level whose top row is between xStart and xEnd inclusive, the squared integral image
+     * is only needed for variance normalisation or flat window rejection. Stops once detections holds maxDetections windows
+     * or stopped is set
+     *
+     * @return number of windows evaluated
+     */
+    private long scan(ScanLevel level, int xStart, int xEnd, DetectionBuffer detections, int maxDetections,
+                      DetectionListener listener, AtomicBoolean stopped) {
+        IntegralImage integralI = level.integralI;
+        boolean windowStats = integralI.hasSquared();
+        int winSize = level.winSize;
+        double area = winSize * winSize;
+        long windows = 0;
+        long skipped = 0;
+        scan:
+        for (int x = xStart; x <= xEnd; x += level.step) {
+            if (stopped != null && stopped.get()) break;
+            for (int y = level.firstY; y <= level.lastY; y += level.step) {
+                if (level.regions != null && !level.inRegion(x, y)) continue;
+                if (level.motionMask != null && !level.motionMask.isMoving(level.originX + x, level.originY + y, winSize, winSize)) {
+                    skipped++;
+                    continue;
+                }
+                windows++;
+                double mean = 0;
+                double stdDev = 1;
+                if (windowStats) {
+                    // var = E[g^2] - E[g]^2, both from the integral images in O(1)
+                    mean = integralI.sum(x, y, winSize, winSize) / area;
+                    double variance = integralI.sumSquared(x, y, winSize, winSize) / area - mean * mean;
+                    double windowStdDev = Math.sqrt(Math.max(variance, 0));
+                    // flat windows (walls, sky) cannot hold a face, reject them before any stage runs
+                    if (windowStdDev < minStdDev || (varianceNormalisation && windowStdDev == 0)) continue;
+                    if (varianceNormalisation) {
+                        stdDev = windowStdDev;
+                    } else {
+                        mean = 0;
                     }
                 }
+                double score = level.cascade.score(integralI, x, y, mean, stdDev);
+                if (score >= 0) {
+                    if (stopped != null && stopped.get()) break scan;
+                    int faceX = level.originY + y;
+                    int faceY = level.originX + x;
+                    int faceSize = winSize;
+                    if (level.scale != 1) {
+                        // window found on a downscaled pyramid level
+                        faceX = (int) Math.round(y * level.scale);
+                        faceY = (int) Math.round(x * level.scale);
+                        faceSize = (int) Math.round(winSize * level.scale);
+                    }
+                    detections.add(faceX, faceY, faceSize);
+                    if (listener != null && !listener.onDetection(new Rectangle(faceX, faceY, faceSize, faceSize), winSize * level.scale / 24, score)) {
+                        stopped.set(true);
+                        break scan;
+                    }
+                    if (detections.size() >= maxDetections) break scan;
+                }
             }
         }
+        windowsEvaluated.add(windows);
+        windowsSkipped.add(skipped);
+        return windows;
+    }
 
-        return rectangles;
+    static class ScanLevel {
+        final IntegralImage integralI;
+        // row and column of the input at which the integral image starts
+        final int originX;
+        final int originY;
+        // windows must lie inside one of these, null to scan every window
+        final List<Rectangle> regions;
+        final int winSize;
+        final int step;
+        final CompiledCascade cascade;
+        // size of one pixel of the integral image in input pixels
+        final double scale;
+        // windows that do not overlap a moving block are skipped, null to scan every window
+        MotionMask motionMask;
+        // first window position inside the integral image and the regions that is on the step grid of the whole input
+        final int firstX;
+        final int firstY;
+        // last window position that fits in the integral image and the bounding box of the regions
+        final int lastX;
+        final int lastY;
+
+        ScanLevel(IntegralImage integralI, int winSize, int step, CompiledCascade cascade, double scale) {
+            this(integralI, 0, 0, null, winSize, step, cascade, scale);
+        }
+
+        ScanLevel(IntegralImage integralI, int originX, int originY, List<Rectangle> regions, int winSize, int step, CompiledCascade cascade, double scale) {
+            this.integralI = integralI;
+            this.originX = originX;
+            this.originY = originY;
+            this.regions = regions;
+            this.winSize = winSize;
+            this.step = step;
+            this.cascade = cascade;
+            this.scale = scale;
+            int top = 0;
+            int left = 0;
+            int bottom = integralI.getHeight();
+            int right = integralI.getWidth();
+            if (regions != null) {
+                Rectangle bounds = union(regions);
+                top = Math.max(top, bounds.y - originX);
+                left = Math.max(left, bounds.x - originY);
+                bottom = Math.min(bottom, bounds.y + bounds.height - originX);
+                right = Math.min(right, bounds.x + bounds.width - originY);
+            }
+            this.firstX = alignToStep(originX + top) - originX;
+            this.firstY = alignToStep(originY + left) - originY;
+            this.lastX = bottom - winSize;
+            this.lastY = right - winSize;
+        }
+
+        /**
+         * @return first multiple of the step at or after the input position
+         */
+        private int alignToStep(int position) {
+            return position + (step - position % step) % step;
+        }
+
+        boolean inRegion(int x, int y) {
+            int row = originX + x;
+            int column = originY + y;
+            for (Rectangle region : regions) {
+                if (column >= region.x && column + winSize <= region.x + region.width
+                        && row >= region.y && row + winSize <= region.y + region.height) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Compiles the cascade for the given window size, compiled cascades are kept until a different cascade is passed in.
+     * Synchronized so that one detector can serve several threads
+     */
+    private synchronized CompiledCascade compile(CascadedClassifier cascadedClassifier, int winSize) {
+        if (cascadedClassifier != compiledSource) {
+            compiledSource = cascadedClassifier;
+            compiledCascades.clear();
+        }
+        CompiledCascade compiled = compiledCascades.get(winSize);
+        if (compiled == null) {
+            compiled = CompiledCascade.compile(winSize == 24 ? cascadedClassifier : cascadedClassifier.scale(winSize / 24.0));
+            compiledCascades.put(winSize, compiled);
+        }
+        return compiled;
     }
 
     private boolean doesFaceExist(int[][] image, Map<String, List<WHaarClassifier>> trainedClassifiers, double finalThreshold, double similarityThreshold) {
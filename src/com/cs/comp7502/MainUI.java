@@ -6,7 +6,9 @@ import com.cs.comp7502.classifier.Stage;
 import com.cs.comp7502.training.Adaboost;
 import com.cs.comp7502.training.WHaarClassifier;
 import com.cs.comp7502.training.Trainer;
+import com.cs.comp7502.utils.FramePipeline;
 import com.cs.comp7502.utils.ImageUtils;
+import com.cs.comp7502.utils.IntegralImage;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.opencv.core.Core;
@@ -28,6 +30,8 @@ import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import java.awt.Graphics2D;
 import java.awt.Color;
@@ -501,34 +505,85 @@ public class MainUI extends JFrame {
             VideoPanel videoPanel = new VideoPanel();
             frame.setContentPane(videoPanel);
             frame.setVisible(true);
-            Mat webImage = new Mat();
+            // full scan every few frames, only the neighbourhood of the faces of the previous frame in between
+            TrackingDetector trackingDetector = new TrackingDetector(detector, cascadedClassifier);
             VideoCapture vidCapture = new VideoCapture(-1);
             if (vidCapture.isOpened()) {
                 vidCapture.set(CV_CAP_PROP_FRAME_WIDTH, 480);
                 vidCapture.set(CV_CAP_PROP_FRAME_HEIGHT, 300);
-                while (true) {
-                    vidCapture.read(webImage);
-                    if (!webImage.empty()) {
-                        long time = System.currentTimeMillis();
-                        Imgproc.resize(webImage, webImage, new Size(480, 300), 0, 0, INTER_CUBIC);
-                        Core.flip(webImage, webImage, 1);
-                        frame.setSize(2 * webImage.width() + 20, 2 * webImage.height() + 40);
 
-                        videoPanel.convertToBufferedImage(webImage);
-                        videoPanel.detectFaces(detector, cascadedClassifier);
+                // capture, preprocessing, detection and rendering run on their own threads, a slow detection drops
+                // the oldest waiting frame instead of holding back the camera
+                FramePipeline<WebCamFrame> pipeline = new FramePipeline<>(2, true);
+                // integral images of rendered frames, reused by the preprocessing of the next ones
+                Queue<IntegralImage> integralImages = new ConcurrentLinkedQueue<>();
+                pipeline.addStep("preprocess", webCamFrame -> {
+                    Mat webImage = webCamFrame.mat;
+                    Imgproc.resize(webImage, webImage, new Size(480, 300), 0, 0, INTER_CUBIC);
+                    Core.flip(webImage, webImage, 1);
+                    webCamFrame.image = VideoPanel.toBufferedImage(webImage);
+                    webImage.release();
+                    // grayscale and integral image in one pass over the frame bytes
+                    webCamFrame.integralI = ImageUtils.buildIntegralImage(webCamFrame.image, integralImages.poll(), detector.needsWindowStats());
+                }).addStep("detect", webCamFrame -> {
+                    webCamFrame.faces = trackingDetector.detectFaces(webCamFrame.integralI);
+                }).addStep("render", new FramePipeline.Step<WebCamFrame>() {
+                    private long lastFrame = System.currentTimeMillis();
+                    private int frames;
+
+                    @Override
+                    public void process(WebCamFrame webCamFrame) {
+                        BufferedImage image = webCamFrame.image;
+                        frame.setSize(2 * image.getWidth() + 20, 2 * image.getHeight() + 40);
+                        videoPanel.showImage(image, webCamFrame.faces);
                         frame.repaint();
-                        System.out.println("fps: " + 1000 / (System.currentTimeMillis() - time));
-                    } else {
+                        integralImages.offer(webCamFrame.integralI);
+
+                        long time = System.currentTimeMillis();
+                        System.out.println("fps: " + 1000 / Math.max(1, time - lastFrame));
+                        lastFrame = time;
+                        if (++frames % 100 == 0) System.out.println(pipeline.getStats());
+                    }
+                }).onDrop(webCamFrame -> {
+                    // a frame dropped before the preprocessing still holds its capture
+                    webCamFrame.mat.release();
+                    if (webCamFrame.integralI != null) integralImages.offer(webCamFrame.integralI);
+                });
+
+                pipeline.start(() -> {
+                    Mat webImage = new Mat();
+                    vidCapture.read(webImage);
+                    if (webImage.empty()) {
                         // error message to user here
                         System.out.println("No frame received from web cam");
-                        break;
+                        return null;
                     }
-
+                    return new WebCamFrame(webImage);
+                });
+                try {
+                    pipeline.await();
+                } catch (InterruptedException e) {
+                    pipeline.stop();
+                    Thread.currentThread().interrupt();
                 }
             }
         }
     };
 
+    /**
+     * one webcam frame going through the pipeline, filled in by each step
+     */
+    private static class WebCamFrame {
+        final Mat mat;
+        BufferedImage image;
+        IntegralImage integralI;
+        List<Rectangle> faces;
+
+        WebCamFrame(Mat mat) {
+            this.mat = mat;
+        }
+    }
+
     private void loadDefaultCascadedClassifier() {
         JSONObject jsonObject = null;
         try {
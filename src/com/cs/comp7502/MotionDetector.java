@@ -0,0 +1,83 @@
+package com.cs.comp7502;
+
+import com.cs.comp7502.classifier.CascadedClassifier;
+import com.cs.comp7502.utils.IntegralImage;
+import com.cs.comp7502.utils.MotionMask;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Face detection for a fixed camera that only scans the parts of each frame that changed.
+ *
+ * Each frame first updates a {@link MotionMask}, then the scale aware detection skips every window lying only on
+ * static blocks. The detections of the previous frame lying only on static blocks are carried forward, since the
+ * window under them did not change, so the result matches a full scan as long as the mask catches every change.
+ */
+public class MotionDetector {
+
+    private final Detector detector;
+    private final CascadedClassifier cascadedClassifier;
+    private final MotionMask motionMask;
+    private DetectionParams detectionParams = new DetectionParams();
+
+    private List<Rectangle> previousFaces = new ArrayList<>();
+    private double skippedRatio;
+
+    /**
+     * @param detector           detector that scans the moving windows
+     * @param cascadedClassifier cascade trained on 24x24 windows
+     * @param motionMask         mask to update with every frame, its block size and threshold set the sensitivity
+     */
+    public MotionDetector(Detector detector, CascadedClassifier cascadedClassifier, MotionMask motionMask) {
+        this.detector = detector;
+        this.cascadedClassifier = cascadedClassifier;
+        this.motionMask = motionMask;
+    }
+
+    public DetectionParams getDetectionParams() {
+        return detectionParams;
+    }
+
+    public void setDetectionParams(DetectionParams detectionParams) {
+        this.detectionParams = detectionParams;
+    }
+
+    public MotionMask getMotionMask() {
+        return motionMask;
+    }
+
+    /**
+     * @return fraction of the windows of the last frame skipped because they were static
+     */
+    public double getSkippedRatio() {
+        return skippedRatio;
+    }
+
+    /**
+     * Detects the faces of the next frame of the video
+     *
+     * @param frame integral image of the whole frame, with the squared integral image if the detector
+     *              {@link Detector#needsWindowStats()}
+     * @return detected windows
+     */
+    public List<Rectangle> detectFaces(IntegralImage frame) {
+        motionMask.update(frame);
+
+        long evaluated = detector.getWindowsEvaluated();
+        long skipped = detector.getWindowsSkipped();
+        List<Rectangle> faces = detector.detectFaces(frame, cascadedClassifier, detectionParams, motionMask);
+        evaluated = detector.getWindowsEvaluated() - evaluated;
+        skipped = detector.getWindowsSkipped() - skipped;
+        skippedRatio = evaluated + skipped == 0 ? 0 : (double) skipped / (evaluated + skipped);
+
+        // the windows skipped this frame still hold the faces found there before
+        for (Rectangle face : previousFaces) {
+            if (faces.size() >= detectionParams.getMaxDetections()) break;
+            if (!motionMask.isMoving(face.y, face.x, face.width, face.height)) faces.add(face);
+        }
+        previousFaces = faces;
+        return faces;
+    }
+}
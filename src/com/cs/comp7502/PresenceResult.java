@@ -0,0 +1,35 @@
+package com.cs.comp7502;
+
+import java.awt.*;
+
+/**
+ * Outcome of {@link Detector#detectPresence(int[][], com.cs.comp7502.classifier.CascadedClassifier, DetectionParams)}
+ */
+public class PresenceResult {
+
+    private final Rectangle face;
+    private final long windowsEvaluated;
+
+    public PresenceResult(Rectangle face, long windowsEvaluated) {
+        this.face = face;
+        this.windowsEvaluated = windowsEvaluated;
+    }
+
+    public boolean isFacePresent() {
+        return face != null;
+    }
+
+    /**
+     * @return first window found, x is the column and y the row, or null if there is no face
+     */
+    public Rectangle getFace() {
+        return face;
+    }
+
+    /**
+     * @return number of windows evaluated before the scan stopped
+     */
+    public long getWindowsEvaluated() {
+        return windowsEvaluated;
+    }
+}
@@ -0,0 +1,159 @@
+package com.cs.comp7502;
+
+import com.cs.comp7502.classifier.CascadedClassifier;
+import com.cs.comp7502.utils.ImageUtils;
+import com.cs.comp7502.utils.IntegralImage;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Face detection for consecutive video frames.
+ *
+ * A full scale aware scan is only run every fullScanInterval frames, or as soon as no face is tracked anymore. On the
+ * frames in between only the neighbourhood of the faces found in the previous frame is scanned, at window sizes close
+ * to theirs, with the region of interest detection of {@link Detector}. Faces move little between two frames, so
+ * this finds the same faces for a fraction of the cost of a full scan.
+ */
+public class TrackingDetector {
+
+    private final Detector detector;
+    private final CascadedClassifier cascadedClassifier;
+    private DetectionParams detectionParams = new DetectionParams();
+
+    private int fullScanInterval = 10;
+    // neighbourhood searched around a tracked face, as a fraction of its size
+    private double searchMargin = 0.5;
+    // window sizes searched around a tracked face, from size / scaleRange to size * scaleRange
+    private double scaleRange = 1.5;
+
+    private List<Rectangle> trackedFaces = new ArrayList<>();
+    private int framesSinceFullScan;
+    private boolean fullScan;
+
+    public TrackingDetector(Detector detector, CascadedClassifier cascadedClassifier) {
+        this.detector = detector;
+        this.cascadedClassifier = cascadedClassifier;
+    }
+
+    public Detector getDetector() {
+        return detector;
+    }
+
+    public DetectionParams getDetectionParams() {
+        return detectionParams;
+    }
+
+    /**
+     * @param detectionParams parameters of the full scans, the tracking scans narrow their face size bounds
+     */
+    public void setDetectionParams(DetectionParams detectionParams) {
+        this.detectionParams = detectionParams;
+    }
+
+    public int getFullScanInterval() {
+        return fullScanInterval;
+    }
+
+    public void setFullScanInterval(int fullScanInterval) {
+        this.fullScanInterval = fullScanInterval;
+    }
+
+    public double getSearchMargin() {
+        return searchMargin;
+    }
+
+    public void setSearchMargin(double searchMargin) {
+        this.searchMargin = searchMargin;
+    }
+
+    public double getScaleRange() {
+        return scaleRange;
+    }
+
+    public void setScaleRange(double scaleRange) {
+        this.scaleRange = scaleRange;
+    }
+
+    /**
+     * @return merged faces of the last frame, the ones the next frame searches around
+     */
+    public List<Rectangle> getTrackedFaces() {
+        return trackedFaces;
+    }
+
+    /**
+     * @return true if the last frame was scanned completely
+     */
+    public boolean isFullScan() {
+        return fullScan;
+    }
+
+    /**
+     * Forgets the tracked faces, the next frame is scanned completely
+     */
+    public void reset() {
+        trackedFaces = new ArrayList<>();
+    }
+
+    /**
+     * Detects the faces of the next frame of the video
+     *
+     * @param frame grayscale frame
+     * @return detected windows, as returned by {@link Detector}
+     */
+    public List<Rectangle> detectFaces(int[][] frame) {
+        return detectFaces(detector.buildIntegralImage(frame));
+    }
+
+    /**
+     * Detects the faces of the next frame of the video from its integral image, which must have the squared integral
+     * image if the detector {@link Detector#needsWindowStats()}
+     *
+     * @param frame integral image of the whole frame
+     * @return detected windows, as returned by {@link Detector}
+     */
+    public List<Rectangle> detectFaces(IntegralImage frame) {
+        List<Rectangle> rectangles;
+        fullScan = trackedFaces.isEmpty() || framesSinceFullScan + 1 >= fullScanInterval;
+        if (fullScan) {
+            rectangles = detector.detectFaces(frame, cascadedClassifier, detectionParams);
+            framesSinceFullScan = 0;
+        } else {
+            rectangles = track(frame);
+            framesSinceFullScan++;
+        }
+
+        // an empty result loses the tracking, so the next frame is scanned completely
+        trackedFaces = merge(rectangles);
+        return rectangles;
+    }
+
+    /**
+     * Scans around every tracked face, with the face size bounds set around the smallest and the largest of them
+     */
+    private List<Rectangle> track(IntegralImage frame) {
+        List<Rectangle> regions = new ArrayList<>();
+        int minSize = Integer.MAX_VALUE;
+        int maxSize = 0;
+        for (Rectangle face : trackedFaces) {
+            int margin = (int) Math.round(face.width * searchMargin);
+            regions.add(new Rectangle(face.x - margin, face.y - margin, face.width + 2 * margin, face.height + 2 * margin));
+            minSize = Math.min(minSize, face.width);
+            maxSize = Math.max(maxSize, face.width);
+        }
+
+        DetectionParams params = new DetectionParams(detectionParams);
+        params.setMinFaceSize(Math.max(detectionParams.getMinFaceSize(), (int) (minSize / scaleRange)));
+        params.setMaxFaceSize(Math.min(detectionParams.getMaxFaceSize(), (int) Math.ceil(maxSize * scaleRange)));
+        return detector.detectFaces(frame, cascadedClassifier, params, regions, 0);
+    }
+
+    /**
+     * Overlapping windows of one face are merged into a single region
+     */
+    private static List<Rectangle> merge(List<Rectangle> rectangles) {
+        return ImageUtils.mergeWindows(rectangles, 0.5, 0);
+    }
+}
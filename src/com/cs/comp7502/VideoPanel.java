@@ -32,10 +32,22 @@ public class VideoPanel extends JPanel {
     }
 
     public void convertToBufferedImage(Mat mat){
+        image = toBufferedImage(mat);
+    }
 
-        image = new BufferedImage(mat.width(), mat.height(), BufferedImage.TYPE_3BYTE_BGR);
+    public static BufferedImage toBufferedImage(Mat mat) {
+        BufferedImage image = new BufferedImage(mat.width(), mat.height(), BufferedImage.TYPE_3BYTE_BGR);
         byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
         mat.get(0, 0, data);
+        return image;
+    }
+
+    /**
+     * Draws the rectangles on the image and shows it, used by the render step of the webcam pipeline
+     */
+    public void showImage(BufferedImage image, List<Rectangle> rectangles) {
+        this.image = image;
+        drawRectangles(rectangles);
     }
 
     private void drawRectangles(List<Rectangle> rectangles) {
@@ -1,17 +1,27 @@
 package com.cs.comp7502.classifier;
 
 import com.cs.comp7502.training.Adaboost;
+import com.cs.comp7502.training.FeatureValueStore;
+import com.cs.comp7502.training.FeatureValueTable;
+import com.cs.comp7502.training.TrainingSet;
+import com.cs.comp7502.utils.IntegralImage;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ThreadLocalRandom;
 
 public class CascadedClassifier implements JSONRW {
 
+    // fraction of the boosted stage threshold it is lowered by at a time until the stage keeps enough faces
+    private static final double THRESHOLD_STEP = 0.02;
+    // times a stage is tried again with a finer threshold step before training gives up
+    private static final int MAX_RETRIES = 4;
+
     private ArrayList<Stage> stages = new ArrayList<Stage>();
 
     public ArrayList<Stage> getStages() {
@@ -26,24 +36,94 @@ public class CascadedClassifier implements JSONRW {
     //      posSet, set of positive samples
     //      negSet, set of negative samples
     public static CascadedClassifier train(List<Feature> possibleFeatures, double maxFPR, double minDR, double targetFPR, List<File> faces, List<File> nonFaces) {
+        return train(possibleFeatures, maxFPR, minDR, targetFPR, faces, nonFaces, null);
+    }
+
+    /**
+     * @param featureValueFile file of the {@link FeatureValueStore} of the possible features on the training set, built
+     *                         on the first run and reused by the next runs on the same samples, or null to keep the
+     *                         feature values on the heap
+     */
+    public static CascadedClassifier train(List<Feature> possibleFeatures, double maxFPR, double minDR, double targetFPR, List<File> faces, List<File> nonFaces,
+                                           File featureValueFile) {
+        return train(possibleFeatures, maxFPR, minDR, targetFPR, faces, nonFaces, featureValueFile, null);
+    }
+
+    /**
+     * Every feature of a stage is the best of all the possible features, so the same inputs train the same cascade
+     *
+     * @param checkpointFile file the {@link TrainingCheckpoint} is saved to after every stage, or null
+     */
+    public static CascadedClassifier train(List<Feature> possibleFeatures, double maxFPR, double minDR, double targetFPR, List<File> faces, List<File> nonFaces,
+                                           File featureValueFile, File checkpointFile) {
+        return train(new TrainingCheckpoint(maxFPR, minDR, targetFPR), possibleFeatures, faces, nonFaces, featureValueFile, checkpointFile);
+    }
+
+    /**
+     * Goes on with a training from the last stage saved in its checkpoint, and keeps saving the next stages there
+     *
+     * @param possibleFeatures same features, in the same order, as the interrupted training
+     * @param faces            same faces as the interrupted training
+     * @param nonFaces         same non faces as the interrupted training
+     */
+    public static CascadedClassifier resume(List<Feature> possibleFeatures, List<File> faces, List<File> nonFaces, File featureValueFile, File checkpointFile) {
+        TrainingCheckpoint checkpoint;
+        try {
+            checkpoint = TrainingCheckpoint.load(checkpointFile);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return train(checkpoint, possibleFeatures, faces, nonFaces, featureValueFile, checkpointFile);
+    }
+
+    private static CascadedClassifier train(TrainingCheckpoint checkpoint, List<Feature> possibleFeatures, List<File> faces, List<File> nonFaces,
+                                            File featureValueFile, File checkpointFile) {
+        double maxFPR = checkpoint.getMaxFPR();
+        double minDR = checkpoint.getMinDR();
+        double targetFPR = checkpoint.getTargetFPR();
+
         // 2. initialise following params
         //      FPR = 0.0, the false positive rate we get for current cascade classifier (part of the final one)
         //      DR = 0.0, the detection rate we get for current cascade classifier (part of the final one)
         //      i = 0, the layer (stage) index
 
-        double fPR = 1.0;
-        double dR = 1.0;
+        double fPR = checkpoint.getFPR();
+        double dR = checkpoint.getDR();
 
-        List<File> P = faces;
-        List<File> N = nonFaces;
+        // every sample is decoded once, the rounds and the evaluations only read the integral images, and the
+        // feature values computed for a stage are kept for the next ones
+        TrainingSet trainingSet = TrainingSet.load(faces, nonFaces);
+        FeatureValueTable featureValues;
+        try {
+            featureValues = featureValueFile == null ? new FeatureValueTable(trainingSet)
+                    : new FeatureValueTable(trainingSet, FeatureValueStore.openOrBuild(trainingSet, possibleFeatures, featureValueFile));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        List<IntegralImage> faceImages = trainingSet.getFaces();
+        // samples the next stage learns from, every face and the non faces that the cascade still takes for faces
+        boolean[] N = new boolean[trainingSet.size()];
+        Arrays.fill(N, true);
+        if (checkpoint.getNegatives() != null) {
+            if (checkpoint.getFaceCount() != trainingSet.getFaceCount() || checkpoint.getNonFaceCount() != trainingSet.getNonFaceCount()) {
+                throw new IllegalArgumentException("checkpoint of another training set");
+            }
+            System.arraycopy(checkpoint.getNegatives(), 0, N, trainingSet.getFaceCount(), trainingSet.getNonFaceCount());
+        }
 
         // 3. train the cascade classifier
         //      while (FPR > targetFPR) {
-        int layer = 1;
-        CascadedClassifier cascadedClassifier = new CascadedClassifier();
-        System.out.println("----Starting training----");
+        int layer = checkpoint.getLayer();
+        CascadedClassifier cascadedClassifier = checkpoint.getCascadedClassifier();
+        // a stage grows one best feature at a time, a retried stage keeps its features and lowers its threshold in
+        // finer steps instead
+        Adaboost.StageBuilder stageBuilder = null;
+        double thresholdStep = THRESHOLD_STEP;
+        int retries = 0;
+        System.out.println("----Starting training at stage " + layer + "----");
         while (fPR > targetFPR) {
             int maxClassifiers = Math.min(10*layer + 10, 200);
+            if (stageBuilder == null) stageBuilder = new Adaboost.StageBuilder(featureValues, N);
 
             int n = 0; // the size of feature set
             System.out.println("----Computing stage " +  layer + "----");
@@ -59,12 +139,14 @@ public class CascadedClassifier implements JSONRW {
                     retry = true;
                     break;
                 }
-                int subIndex = ThreadLocalRandom.current().nextInt(0, possibleFeatures.size() - n);
-                stage = Adaboost.learn(possibleFeatures.subList(subIndex, subIndex + n), P, N);
+                while (stageBuilder.size() < n) {
+                    stageBuilder.addBestFeature(possibleFeatures);
+                }
+                stage = stageBuilder.getStage(n);
 
                 double threshold = stage.getStageThreshold();
                 double originalThreshold = threshold;
-                double decrement = Math.abs(originalThreshold) * 0.02;
+                double decrement = Math.abs(originalThreshold) * thresholdStep;
                 boolean discard;
                 int count = 0;
                 do {
@@ -75,7 +157,7 @@ public class CascadedClassifier implements JSONRW {
                     stage.setStageThreshold(threshold);
                     threshold -= decrement;
                     // (evaluate the cascaded classifier on the training set)
-                    double[] results = cascadedClassifier.evaluate(stage, faces, nonFaces);
+                    double[] results = cascadedClassifier.evaluate(stage, trainingSet);
                     newDR = results[0];
                     newFPR = results[1];
                     count++;
@@ -83,17 +165,24 @@ public class CascadedClassifier implements JSONRW {
                 } while (newDR < minDR * dR);
                 System.out.println("----Computed stage " + layer + ", classifier " + n + " newFPR " + newFPR + " maxFPR * fPR " + maxFPR * fPR +" newDR " + newDR + " dR " + dR + " orginalThreshold " + originalThreshold + " finalThreshold " + stage.getStageThreshold() + " ----");
                 if (discard) {
-                    retry = true;
+                    // the next feature gives the stage another threshold
                     System.out.println("----Computed stage " + layer + ", discard classifier, decrement " + decrement + "----");
-                    break;
+                    newFPR = fPR;
+                    newDR = dR;
                 }
             }
             if (retry) {
-                System.out.println("retrying...");
+                if (++retries > MAX_RETRIES) {
+                    throw new IllegalStateException("stage " + layer + " does not reach a false positive rate of " + maxFPR * fPR
+                            + " with a detection rate of " + minDR * dR + " in " + maxClassifiers + " features");
+                }
+                thresholdStep /= 2;
+                System.out.println("retrying with a threshold step of " + thresholdStep + "...");
                 continue;
             }
 
             if (stage == null) throw new RuntimeException("stage is null");
+            stage.calibrateRejectionThresholds(cascadedClassifier.passing(faceImages));
             cascadedClassifier.add(stage);
             System.out.println("----Finished computing stage " +  layer + " in" + ((System.currentTimeMillis() - stageTime)/1000) +"s ----");
             System.out.println("----Number of classifiers in stage " +  layer + " is " + stage.getClassifierList().size() + "----");
@@ -101,18 +190,32 @@ public class CascadedClassifier implements JSONRW {
             fPR = newFPR;
             dR = newDR;
             //  clear negSet
-            N = new ArrayList<>();
-
-            if (fPR > targetFPR) {
-                // give a set of negative sample
-                for (File nonFace : nonFaces){
-                    // for any negative sample which can be detected as face
-                    // put it into negSet
-                    boolean isFace = cascadedClassifier.isFace(nonFace);
-                    if (isFace) N.add(nonFace);
-                }
+            Arrays.fill(N, trainingSet.getFaceCount(), N.length, false);
+
+            // give a set of negative sample, also after the last stage so that its checkpoint can be resumed with a
+            // lower target
+            for (int i = 0; i < trainingSet.getNonFaceCount(); i++){
+                // for any negative sample which can be detected as face
+                // put it into negSet
+                boolean isFace = cascadedClassifier.isFace(trainingSet.getNonFaces().get(i), 0, 0);
+                if (isFace) N[trainingSet.getFaceCount() + i] = true;
             }
             layer++;
+            stageBuilder = null;
+            thresholdStep = THRESHOLD_STEP;
+            retries = 0;
+
+            checkpoint.setFPR(fPR);
+            checkpoint.setDR(dR);
+            checkpoint.setLayer(layer);
+            checkpoint.setNegatives(trainingSet.getFaceCount(), Arrays.copyOfRange(N, trainingSet.getFaceCount(), N.length));
+            if (checkpointFile != null) {
+                try {
+                    checkpoint.save(checkpointFile);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
         }
         return cascadedClassifier;
     }
@@ -135,6 +238,87 @@ public class CascadedClassifier implements JSONRW {
         return true;
     }
 
+    /**
+     * Runs the cascade on the window whose top left corner is at (x, y) of an integral image
+     *
+     * @param integralI integral image of the whole frame
+     * @param x         row of the window
+     * @param y         column of the window
+     * @return true if the window passes every stage
+     */
+    public boolean isFace(IntegralImage integralI, int x, int y) {
+        for (Stage stage: stages) {
+            if (!stage.isFace(integralI, x, y)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param scale ratio between the window size and 24
+     * @return copy of this cascade with every feature scaled
+     * @see Feature#scale(double)
+     */
+    public CascadedClassifier scale(double scale) {
+        CascadedClassifier scaled = new CascadedClassifier();
+        for (Stage stage : stages) {
+            scaled.add(stage.scale(scale));
+        }
+        return scaled;
+    }
+
+    /**
+     * Calibrates the soft cascade rejection thresholds of every stage, each stage is calibrated with the faces that
+     * pass all the stages before it
+     *
+     * @param faces 24x24 training faces
+     * @see Stage#calibrateRejectionThresholds(List)
+     */
+    public void calibrateRejectionThresholds(List<File> faces) {
+        List<IntegralImage> passing = loadIntegralImages(faces);
+        for (Stage stage : stages) {
+            stage.calibrateRejectionThresholds(passing);
+            List<IntegralImage> next = new ArrayList<>();
+            for (IntegralImage face : passing) {
+                if (stage.isFace(face, 0, 0)) next.add(face);
+            }
+            passing = next;
+        }
+    }
+
+    private List<IntegralImage> passing(List<IntegralImage> images) {
+        List<IntegralImage> passing = new ArrayList<>();
+        for (IntegralImage image : images) {
+            if (isFace(image, 0, 0)) passing.add(image);
+        }
+        return passing;
+    }
+
+    private static List<IntegralImage> loadIntegralImages(List<File> files) {
+        return TrainingSet.loadIntegralImages(files);
+    }
+
+    /**
+     * Same as {@link #evaluate(Stage, List, List)} on samples already in memory
+     *
+     * @return detection rate and false positive rate of this cascade followed by the stage
+     */
+    public double[] evaluate(Stage stage, TrainingSet trainingSet) {
+        int posFaceNum = 0;
+        int negNonFaceNum = 0;
+
+        for (IntegralImage face : trainingSet.getFaces()) {
+            if (isFace(face, 0, 0) && stage.isFace(face, 0, 0))
+                posFaceNum++;
+        }
+
+        for (IntegralImage nonFace : trainingSet.getNonFaces()) {
+            if (isFace(nonFace, 0, 0) && stage.isFace(nonFace, 0, 0))
+                negNonFaceNum++;
+        }
+
+        return new double[]{(double) posFaceNum / trainingSet.getFaceCount(), (double) negNonFaceNum / trainingSet.getNonFaceCount()};
+    }
+
     public double[] evaluate(Stage stage, List<File> faces, List<File> nonfaces) {
         int faceNum = faces.size();
         int nonFaceNum = nonfaces.size();
@@ -0,0 +1,259 @@
+package com.cs.comp7502.classifier;
+
+import com.cs.comp7502.utils.IntegralImage;
+
+import java.util.List;
+
+/**
+ * Flattened, read only form of a {@link CascadedClassifier} used on the detection hot path.
+ *
+ * Every stage, feature and rectangle is stored in primitive arrays (struct of arrays) so evaluating a window is a
+ * couple of nested loops over int and double arrays without any object or map lookups. Each Haar feature is rewritten
+ * as a weighted sum of 2 or 3 rectangles:
+ * <ul>
+ *     <li>type 1 and 3: whole area - 2 * second half</li>
+ *     <li>type 2 and 4: whole area - 2 * middle third</li>
+ *     <li>type 5: whole area - 2 * top right - 2 * bottom left</li>
+ * </ul>
+ * which gives exactly the same integer value as {@link Feature#getValue(IntegralImage, int, int)}.
+ *
+ * Rectangle corners are turned into offsets into the flat {@link IntegralImage} array once per image stride, so a
+ * rectangle sum is four array reads relative to the window position.
+ *
+ * The JSON model stays the source of truth, build one with {@link #compile(CascadedClassifier)} after decoding.
+ */
+public class CompiledCascade {
+
+    private final int stageCount;
+    // exclusive index of the last feature of each stage
+    private final int[] stageEnd;
+    private final double[] stageThreshold;
+
+    // exclusive index of the last rectangle of each feature
+    private final int[] featureRectEnd;
+    private final int[] polarity;
+    // polarity * threshold, so the weak classifier is a single comparison
+    private final double[] polarisedThreshold;
+    private final double[] weight;
+    // the window is rejected as soon as the running sum of its stage is below this, see compile
+    private final double[] rejectionThreshold;
+    // sum of rectangle weight * area, what the feature value grows by when every pixel grows by 1
+    private final int[] netArea;
+
+    // inclusive corners of each rectangle relative to the top left of the window
+    private final int[] rectTop;
+    private final int[] rectLeft;
+    private final int[] rectBottom;
+    private final int[] rectRight;
+    private final int[] rectWeight;
+
+    private volatile CornerOffsets cornerOffsets;
+
+    private CompiledCascade(int stageCount, int featureCount, int rectCount) {
+        this.stageCount = stageCount;
+        stageEnd = new int[stageCount];
+        stageThreshold = new double[stageCount];
+        featureRectEnd = new int[featureCount];
+        polarity = new int[featureCount];
+        polarisedThreshold = new double[featureCount];
+        weight = new double[featureCount];
+        rejectionThreshold = new double[featureCount];
+        netArea = new int[featureCount];
+        rectTop = new int[rectCount];
+        rectLeft = new int[rectCount];
+        rectBottom = new int[rectCount];
+        rectRight = new int[rectCount];
+        rectWeight = new int[rectCount];
+    }
+
+    public static CompiledCascade compile(CascadedClassifier cascadedClassifier) {
+        List<Stage> stages = cascadedClassifier.getStages();
+        int featureCount = 0;
+        int rectCount = 0;
+        for (Stage stage : stages) {
+            for (Feature feature : stage.getClassifierList()) {
+                featureCount++;
+                rectCount += feature.getType() == Feature.FEATURE_TYPE_5 ? 3 : 2;
+            }
+        }
+
+        CompiledCascade compiled = new CompiledCascade(stages.size(), featureCount, rectCount);
+        int f = 0;
+        int r = 0;
+        for (int s = 0; s < stages.size(); s++) {
+            Stage stage = stages.get(s);
+            int stageStart = f;
+            for (Feature feature : stage.getClassifierList()) {
+                int firstRect = r;
+                r = compiled.addRectangles(feature, r);
+                for (int i = firstRect; i < r; i++) {
+                    compiled.netArea[f] += compiled.rectWeight[i] * (compiled.rectBottom[i] - compiled.rectTop[i] + 1) * (compiled.rectRight[i] - compiled.rectLeft[i] + 1);
+                }
+                compiled.featureRectEnd[f] = r;
+                compiled.polarity[f] = feature.getPolarity();
+                compiled.polarisedThreshold[f] = feature.getPolarity() * feature.getThreshold();
+                compiled.weight[f] = feature.getWeight();
+                f++;
+            }
+            compiled.stageEnd[s] = f;
+            compiled.stageThreshold[s] = stage.getStageThreshold();
+            compiled.setRejectionThresholds(stage, stageStart, f);
+        }
+        return compiled;
+    }
+
+    /**
+     * Early rejection after each feature of a stage, the larger of
+     * <ul>
+     *     <li>the calibrated soft cascade trace of the stage, if any</li>
+     *     <li>the stage threshold minus every positive weight still to come: below it the stage cannot be passed
+     *     anymore, so exiting there never changes the result</li>
+     * </ul>
+     */
+    private void setRejectionThresholds(Stage stage, int stageStart, int stageEnd) {
+        double[] trace = stage.getRejectionThresholds();
+        double remaining = 0;
+        for (int f = stageEnd - 1; f >= stageStart; f--) {
+            // small margin so rounding in the running sum can never reject a window that would pass
+            double threshold = stage.getStageThreshold() - remaining - 1e-9;
+            if (trace != null) threshold = Math.max(threshold, trace[f - stageStart]);
+            rejectionThreshold[f] = threshold;
+            remaining += Math.max(weight[f], 0);
+        }
+    }
+
+    private int addRectangles(Feature feature, int r) {
+        int x = feature.getX();
+        int y = feature.getY();
+        int w = feature.getWidth();
+        int h = feature.getHeight();
+        int rows = Feature.rowCount(feature.getType());
+        int cols = Feature.colCount(feature.getType());
+
+        r = setRectangle(r, x, y, w * cols, h * rows, 1);
+        if (feature.getType() == Feature.FEATURE_TYPE_5) {
+            r = setRectangle(r, x, y + w, w, h, -2);
+            r = setRectangle(r, x + h, y, w, h, -2);
+        } else if (rows == 1) {
+            // second of two or middle of three columns
+            r = setRectangle(r, x, y + w, w, h, -2);
+        } else {
+            // second of two or middle of three rows
+            r = setRectangle(r, x + h, y, w, h, -2);
+        }
+        return r;
+    }
+
+    private int setRectangle(int r, int x, int y, int w, int h, int rWeight) {
+        rectTop[r] = x;
+        rectLeft[r] = y;
+        rectBottom[r] = x + h - 1;
+        rectRight[r] = y + w - 1;
+        rectWeight[r] = rWeight;
+        return r + 1;
+    }
+
+    public int getStageCount() {
+        return stageCount;
+    }
+
+    public int getFeatureCount() {
+        return featureRectEnd.length;
+    }
+
+    /**
+     * Runs the cascade on the window whose top left corner is at (x, y) of an integral image
+     *
+     * @param integralI integral image of the whole frame
+     * @param x         row of the window
+     * @param y         column of the window
+     * @return true if the window passes every stage
+     */
+    public boolean isFace(IntegralImage integralI, int x, int y) {
+        return isFace(integralI, x, y, 0, 1);
+    }
+
+    /**
+     * Runs the cascade on a variance normalised window as in Viola-Jones: every feature value is computed as if the
+     * window had been shifted to zero mean and divided by its standard deviation before the integral image was built.
+     * Only meaningful for cascades trained on normalised samples, mean 0 and standard deviation 1 leave the values as is
+     *
+     * @param integralI integral image of the whole frame
+     * @param x         row of the window
+     * @param y         column of the window
+     * @param mean      mean intensity of the window
+     * @param stdDev    standard deviation of the window intensity, must be positive
+     * @return true if the window passes every stage
+     */
+    public boolean isFace(IntegralImage integralI, int x, int y, double mean, double stdDev) {
+        return score(integralI, x, y, mean, stdDev) >= 0;
+    }
+
+    /**
+     * Runs the cascade like {@link #isFace(IntegralImage, int, int, double, double)} and tells how far the window got
+     *
+     * @return margin of the window over the threshold of the last stage, larger is more confident, or negative infinity
+     * if a stage rejected the window. Positive infinity for a cascade without stages
+     */
+    public double score(IntegralImage integralI, int x, int y, double mean, double stdDev) {
+        CornerOffsets offsets = getCornerOffsets(integralI.getStride());
+        int[] topLeft = offsets.topLeft;
+        int[] topRight = offsets.topRight;
+        int[] bottomLeft = offsets.bottomLeft;
+        int[] bottomRight = offsets.bottomRight;
+        int[] data = integralI.getData();
+        int window = x * integralI.getStride() + y;
+
+        double margin = Double.POSITIVE_INFINITY;
+        int f = 0;
+        int r = 0;
+        for (int s = 0; s < stageCount; s++) {
+            double sumResult = 0;
+            int featureEnd = stageEnd[s];
+            for (; f < featureEnd; f++) {
+                int value = 0;
+                int rectEnd = featureRectEnd[f];
+                for (; r < rectEnd; r++) {
+                    value += rectWeight[r] * (data[window + bottomRight[r]] - data[window + bottomLeft[r]] - data[window + topRight[r]] + data[window + topLeft[r]]);
+                }
+                // p * (value - mean * area) / stdDev < p * threshold, without the division
+                sumResult += polarity[f] * (value - mean * netArea[f]) < polarisedThreshold[f] * stdDev ? weight[f] : 0;
+                if (sumResult < rejectionThreshold[f]) return Double.NEGATIVE_INFINITY;
+            }
+            if (sumResult < stageThreshold[s]) return Double.NEGATIVE_INFINITY;
+            margin = sumResult - stageThreshold[s];
+        }
+        return margin;
+    }
+
+    /**
+     * Offsets of the rectangle corners for the given stride, recomputed only when the stride changes. Building them
+     * twice from two threads is harmless since they only depend on the stride
+     */
+    private CornerOffsets getCornerOffsets(int stride) {
+        CornerOffsets offsets = cornerOffsets;
+        if (offsets == null || offsets.stride != stride) {
+            offsets = new CornerOffsets(stride);
+            cornerOffsets = offsets;
+        }
+        return offsets;
+    }
+
+    private class CornerOffsets {
+        final int stride;
+        final int[] topLeft = new int[rectWeight.length];
+        final int[] topRight = new int[rectWeight.length];
+        final int[] bottomLeft = new int[rectWeight.length];
+        final int[] bottomRight = new int[rectWeight.length];
+
+        CornerOffsets(int stride) {
+            this.stride = stride;
+            for (int r = 0; r < rectWeight.length; r++) {
+                topLeft[r] = rectTop[r] * stride + rectLeft[r];
+                topRight[r] = rectTop[r] * stride + rectRight[r] + 1;
+                bottomLeft[r] = (rectBottom[r] + 1) * stride + rectLeft[r];
+                bottomRight[r] = (rectBottom[r] + 1) * stride + rectRight[r] + 1;
+            }
+        }
+    }
+}
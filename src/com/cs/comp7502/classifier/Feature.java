@@ -1,6 +1,7 @@
 package com.cs.comp7502.classifier;
 
 import com.cs.comp7502.utils.ImageUtils;
+import com.cs.comp7502.utils.IntegralImage;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -62,6 +63,26 @@ public class Feature implements JSONRW {
         this.height = height;
     }
 
+    public int getType() {
+        return type;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
     public double getError() {
         return error;
     }
@@ -88,46 +109,64 @@ public class Feature implements JSONRW {
 
 
     public int getValue(int[][] image) {
+        return getValue(IntegralImage.fromIntegral(image), 0, 0);
+    }
+
+    public int getValue(IntegralImage image) {
+        return getValue(image, 0, 0);
+    }
+
+    /**
+     * Calculates the feature value for a window whose top left corner is at (offsetX, offsetY) of an integral image
+     *
+     * @param image   integral image of the whole frame
+     * @param offsetX row of the window within the integral image
+     * @param offsetY column of the window within the integral image
+     * @return feature value
+     */
+    public int getValue(IntegralImage image, int offsetX, int offsetY) {
         int result;
+        int x = this.x + offsetX;
+        int y = this.y + offsetY;
 
         int windowCountH = rowCount(type);
         int windowCountW = colCount(type);
         // type 1
         if (windowCountH == 1 && windowCountW == 2) {
-            int sum1 = ImageUtils.sumIntegralImage(image, x, y, width, height);
-            int sum2 = ImageUtils.sumIntegralImage(image, x, y + width, width, height);
+            int sum1 = image.sum(x, y, width, height);
+            int sum2 = image.sum(x, y + width, width, height);
 
             result = sum1 - sum2;
         }
         // type 2
         else if (windowCountH == 1 && windowCountW == 3) {
-            int sum1 = ImageUtils.sumIntegralImage(image, x, y, width, height);
-            int sum2 = ImageUtils.sumIntegralImage(image, x, y + width, width, height);
-            int sum3 = ImageUtils.sumIntegralImage(image, x, y + width * 2, width, height);
+            int sum1 = image.sum(x, y, width, height);
+            int sum2 = image.sum(x, y + width, width, height);
+            int sum3 = image.sum(x, y + width * 2, width, height);
 
             result = sum1 - sum2 + sum3;
         }
         // type 3
         else if (windowCountH == 2 && windowCountW == 1) {
-            int sum1 = ImageUtils.sumIntegralImage(image, x, y, width, height);
-            int sum2 = ImageUtils.sumIntegralImage(image, x + height, y, width, height);
+            int sum1 = image.sum(x, y, width, height);
+            int sum2 = image.sum(x + height, y, width, height);
 
             result = sum1 - sum2;
         }
         // type 4
         else if (windowCountH == 3 && windowCountW == 1) {
-            int sum1 = ImageUtils.sumIntegralImage(image, x, y, width, height);
-            int sum2 = ImageUtils.sumIntegralImage(image, x + height, y, width, height);
-            int sum3 = ImageUtils.sumIntegralImage(image, x + height * 2, y, width, height);
+            int sum1 = image.sum(x, y, width, height);
+            int sum2 = image.sum(x + height, y, width, height);
+            int sum3 = image.sum(x + height * 2, y, width, height);
 
             result = sum1 - sum2 + sum3;
         }
         // type 5
         else {
-            int sum1 = ImageUtils.sumIntegralImage(image, x, y, width, height);
-            int sum2 = ImageUtils.sumIntegralImage(image, x + height, y, width, height);
-            int sum3 = ImageUtils.sumIntegralImage(image, x, y + width, width, height);
-            int sum4 = ImageUtils.sumIntegralImage(image, x + height, y + width, width, height);
+            int sum1 = image.sum(x, y, width, height);
+            int sum2 = image.sum(x + height, y, width, height);
+            int sum3 = image.sum(x, y + width, width, height);
+            int sum4 = image.sum(x + height, y + width, width, height);
 
             result = sum1 - sum2 - sum3 + sum4;
         }
@@ -138,12 +177,27 @@ public class Feature implements JSONRW {
     public int getValue(File file) throws IOException {
         BufferedImage bImage = ImageIO.read(file);
         int[][] image = ImageUtils.buildImageArray(bImage, true);
-        int w = image[0].length;
-        int h = image.length;
-        int[][] integralI = new int[h][w];
-        ImageUtils.buildIntegralImage(image, integralI, w, h);
 
-        return this.getValue(integralI);
+        return this.getValue(new IntegralImage(image));
+    }
+
+    /**
+     * Creates a copy of this feature with its rectangles resized to a window that is scale times the 24x24 base window.
+     * The threshold is multiplied by the change in rectangle area so that it still applies to the larger sums
+     *
+     * @param scale ratio between the window size and 24
+     * @return scaled copy of this feature
+     */
+    public Feature scale(double scale) {
+        // flooring keeps every rectangle inside the floor(24 * scale) window
+        int scaledWidth = (int) (width * scale);
+        int scaledHeight = (int) (height * scale);
+        Feature scaled = new Feature(type, (int) (x * scale), (int) (y * scale), scaledWidth, scaledHeight);
+        scaled.setThreshold(threshold * (scaledWidth * scaledHeight) / (double) (width * height));
+        scaled.setPolarity(polarity);
+        scaled.setWeight(weight);
+        scaled.setError(error);
+        return scaled;
     }
 
     public double getWeight() {
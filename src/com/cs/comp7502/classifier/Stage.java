@@ -1,6 +1,7 @@
 package com.cs.comp7502.classifier;
 
 import com.cs.comp7502.utils.ImageUtils;
+import com.cs.comp7502.utils.IntegralImage;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -10,18 +11,27 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class Stage implements JSONRW {
 
     private double stageThreshold;
     private ArrayList<Feature> classifierList = new ArrayList<>();
+    // soft cascade, a window is rejected as soon as the running sum after feature i is below rejectionThresholds[i],
+    // only used while it has one threshold per feature
+    private double[] rejectionThresholds;
 
     public double getStageThreshold() {
         return stageThreshold;
     }
 
+    /**
+     * Also clears the rejection thresholds, they are only valid for the stage threshold they were calibrated with
+     */
     public void setStageThreshold(double stageThreshold) {
         this.stageThreshold = stageThreshold;
+        this.rejectionThresholds = null;
     }
 
     public ArrayList<Feature> getClassifierList() {
@@ -30,6 +40,63 @@ public class Stage implements JSONRW {
 
     public void setClassifierList(ArrayList<Feature> classifierList) {
         this.classifierList = classifierList;
+        this.rejectionThresholds = null;
+    }
+
+    /**
+     * @return intermediate thresholds of the running sum after each feature, null if the stage is not calibrated or
+     * if features were added to or removed from the classifier list since
+     */
+    public double[] getRejectionThresholds() {
+        if (rejectionThresholds == null || rejectionThresholds.length != classifierList.size()) return null;
+        return rejectionThresholds;
+    }
+
+    /**
+     * @param rejectionThresholds one threshold per feature of the classifier list, or null
+     */
+    public void setRejectionThresholds(double[] rejectionThresholds) {
+        if (rejectionThresholds != null && rejectionThresholds.length != classifierList.size()) {
+            throw new IllegalArgumentException(rejectionThresholds.length + " rejection thresholds for " + classifierList.size() + " features");
+        }
+        this.rejectionThresholds = rejectionThresholds;
+    }
+
+    /**
+     * Calibrates the per feature rejection thresholds from training faces (direct backward pruning): the threshold
+     * after each feature is the lowest running sum reached by any of the faces that pass the whole stage, so none of
+     * them would be rejected early. Most non faces fall below the trace after a handful of features
+     *
+     * @param faces integral images of 24x24 training faces
+     */
+    public void calibrateRejectionThresholds(List<IntegralImage> faces) {
+        rejectionThresholds = null;
+        double[] thresholds = new double[classifierList.size()];
+        Arrays.fill(thresholds, Double.POSITIVE_INFINITY);
+        boolean calibrated = false;
+        for (IntegralImage face : faces) {
+            double[] trace = runningSums(face, 0, 0);
+            if (trace.length == 0 || trace[trace.length - 1] < stageThreshold) continue;
+            calibrated = true;
+            for (int i = 0; i < trace.length; i++) {
+                thresholds[i] = Math.min(thresholds[i], trace[i]);
+            }
+        }
+        if (calibrated) rejectionThresholds = thresholds;
+    }
+
+    private double[] runningSums(IntegralImage integralI, int x, int y) {
+        double[] sums = new double[classifierList.size()];
+        double sumResult = 0;
+        for (int i = 0; i < classifierList.size(); i++) {
+            Feature feature = classifierList.get(i);
+            int value = feature.getValue(integralI, x, y);
+            if (feature.getPolarity() * value < feature.getPolarity() * feature.getThreshold()) {
+                sumResult += feature.getWeight();
+            }
+            sums[i] = sumResult;
+        }
+        return sums;
     }
 
 
@@ -48,15 +115,25 @@ public class Stage implements JSONRW {
     public boolean isFace(int[][] inputImage) {
         // for each feature in the stage
 
-        int h = inputImage.length;
-        int w = inputImage[0].length;
-        int[][] image = new int[h][w];
-        ImageUtils.buildIntegralImage(inputImage, image, w, h);
+        return this.isFace(new IntegralImage(inputImage), 0, 0);
+    }
 
+    /**
+     * Evaluates the window whose top left corner is at (x, y) of an already computed integral image,
+     * so that a whole frame only needs one integral image
+     *
+     * @param integralI integral image of the whole frame
+     * @param x         row of the window
+     * @param y         column of the window
+     * @return true if the window passes this stage
+     */
+    public boolean isFace(IntegralImage integralI, int x, int y) {
+        double[] trace = getRejectionThresholds();
         double sumResult = 0;
-        for (Feature feature : classifierList) {
+        for (int i = 0; i < classifierList.size(); i++) {
+            Feature feature = classifierList.get(i);
             // calculate the feature value
-            int value = feature.getValue(image);
+            int value = feature.getValue(integralI, x, y);
             // if p*feature value < p * threshold
             int result = 0;
             if (feature.getPolarity() * value < feature.getPolarity() * feature.getThreshold()) {
@@ -64,6 +141,8 @@ public class Stage implements JSONRW {
                 result = 1;
             }
             sumResult += feature.getWeight() * result;
+            // exit early once the running sum falls below the calibrated trace
+            if (trace != null && sumResult < trace[i]) return false;
         }
         // sum up each result with the corresponding feature weight
         // if the sum of result is >= stage threshold the image contains a face
@@ -71,6 +150,22 @@ public class Stage implements JSONRW {
         return sumResult >= stageThreshold ? true : false;
     }
 
+    /**
+     * @param scale ratio between the window size and 24
+     * @return copy of this stage with every feature scaled
+     * @see Feature#scale(double)
+     */
+    public Stage scale(double scale) {
+        Stage scaled = new Stage();
+        scaled.setStageThreshold(stageThreshold);
+        for (Feature feature : classifierList) {
+            scaled.classifierList.add(feature.scale(scale));
+        }
+        // the running sums only depend on the weights, the trace holds at any scale
+        scaled.rejectionThresholds = getRejectionThresholds();
+        return scaled;
+    }
+
     @Override
     public JSONObject encode() {
         JSONObject stage = new JSONObject();
@@ -83,6 +178,14 @@ public class Stage implements JSONRW {
             }
             stage.put("stageThreshold", getStageThreshold());
             stage.put("features", features);
+            double[] trace = getRejectionThresholds();
+            if (trace != null) {
+                JSONArray thresholds = new JSONArray();
+                for (double threshold : trace) {
+                    thresholds.put(threshold);
+                }
+                stage.put("rejectionThresholds", thresholds);
+            }
         } catch (JSONException e) {
             e.printStackTrace();
         }
@@ -100,6 +203,14 @@ public class Stage implements JSONRW {
                 feature.decode(jsonObject);
                 classifierList.add(feature);
             }
+            // a trace that does not have one threshold per feature was not calibrated for them, it is left out
+            if (json.has("rejectionThresholds") && json.getJSONArray("rejectionThresholds").length() == classifierList.size()) {
+                JSONArray thresholds = json.getJSONArray("rejectionThresholds");
+                rejectionThresholds = new double[thresholds.length()];
+                for (int i = 0; i < thresholds.length(); i++) {
+                    rejectionThresholds[i] = thresholds.getDouble(i);
+                }
+            }
         } catch (JSONException e) {
             e.printStackTrace();
         }
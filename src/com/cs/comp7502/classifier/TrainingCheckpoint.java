@@ -0,0 +1,181 @@
+package com.cs.comp7502.classifier;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * State of {@link CascadedClassifier#train} after a completed stage, enough to go on with the next stage as if the
+ * training had never stopped: the parameters, the stages so far with their false positive and detection rates, and
+ * the non faces mined for the next stage.
+ *
+ * The features and the training files are not saved, {@link CascadedClassifier#resume} must be given the same ones
+ * in the same order.
+ */
+public class TrainingCheckpoint implements JSONRW {
+
+    private double maxFPR;
+    private double minDR;
+    private double targetFPR;
+    private double fPR = 1.0;
+    private double dR = 1.0;
+    // stage computed next, from 1
+    private int layer = 1;
+    private int faceCount;
+    private int nonFaceCount;
+    // non faces the next stage learns from, null for all of them
+    private boolean[] negatives;
+    private CascadedClassifier cascadedClassifier = new CascadedClassifier();
+
+    public TrainingCheckpoint() {}
+
+    public TrainingCheckpoint(double maxFPR, double minDR, double targetFPR) {
+        this.maxFPR = maxFPR;
+        this.minDR = minDR;
+        this.targetFPR = targetFPR;
+    }
+
+    public static TrainingCheckpoint load(File file) throws IOException {
+        TrainingCheckpoint checkpoint = new TrainingCheckpoint();
+        try {
+            checkpoint.decode(new JSONObject(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8)));
+        } catch (JSONException e) {
+            throw new IOException("corrupt checkpoint " + file, e);
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Writes to a temporary file first and then replaces the file, so a training killed while saving leaves the
+     * previous checkpoint intact
+     */
+    public void save(File file) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        Files.write(temporary.toPath(), encode().toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public double getMaxFPR() {
+        return maxFPR;
+    }
+
+    public double getMinDR() {
+        return minDR;
+    }
+
+    public double getTargetFPR() {
+        return targetFPR;
+    }
+
+    public void setTargetFPR(double targetFPR) {
+        this.targetFPR = targetFPR;
+    }
+
+    public double getFPR() {
+        return fPR;
+    }
+
+    public void setFPR(double fPR) {
+        this.fPR = fPR;
+    }
+
+    public double getDR() {
+        return dR;
+    }
+
+    public void setDR(double dR) {
+        this.dR = dR;
+    }
+
+    public int getLayer() {
+        return layer;
+    }
+
+    public void setLayer(int layer) {
+        this.layer = layer;
+    }
+
+    public int getFaceCount() {
+        return faceCount;
+    }
+
+    public int getNonFaceCount() {
+        return nonFaceCount;
+    }
+
+    public boolean[] getNegatives() {
+        return negatives;
+    }
+
+    /**
+     * @param faceCount number of faces of the training set
+     * @param negatives non faces of the training set the next stage learns from
+     */
+    public void setNegatives(int faceCount, boolean[] negatives) {
+        this.faceCount = faceCount;
+        this.nonFaceCount = negatives.length;
+        this.negatives = negatives;
+    }
+
+    public CascadedClassifier getCascadedClassifier() {
+        return cascadedClassifier;
+    }
+
+    @Override
+    public JSONObject encode() {
+        JSONObject checkpoint = new JSONObject();
+        try {
+            checkpoint.put("maxFPR", maxFPR);
+            checkpoint.put("minDR", minDR);
+            checkpoint.put("targetFPR", targetFPR);
+            checkpoint.put("fPR", fPR);
+            checkpoint.put("dR", dR);
+            checkpoint.put("layer", layer);
+            if (negatives != null) {
+                checkpoint.put("faceCount", faceCount);
+                checkpoint.put("nonFaceCount", nonFaceCount);
+                JSONArray mined = new JSONArray();
+                for (int i = 0; i < negatives.length; i++) {
+                    if (negatives[i]) mined.put(i);
+                }
+                checkpoint.put("negatives", mined);
+            }
+            checkpoint.put("cascadedClassifier", cascadedClassifier.encode());
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+        return checkpoint;
+    }
+
+    @Override
+    public void decode(JSONObject json) {
+        try {
+            maxFPR = json.getDouble("maxFPR");
+            minDR = json.getDouble("minDR");
+            targetFPR = json.getDouble("targetFPR");
+            fPR = json.getDouble("fPR");
+            dR = json.getDouble("dR");
+            layer = json.getInt("layer");
+            negatives = null;
+            if (json.has("negatives")) {
+                faceCount = json.getInt("faceCount");
+                nonFaceCount = json.getInt("nonFaceCount");
+                negatives = new boolean[nonFaceCount];
+                JSONArray mined = json.getJSONArray("negatives");
+                for (int i = 0; i < mined.length(); i++) {
+                    negatives[mined.getInt(i)] = true;
+                }
+            }
+            cascadedClassifier = new CascadedClassifier();
+            cascadedClassifier.decode(json.getJSONObject("cascadedClassifier"));
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -4,8 +4,9 @@ import com.cs.comp7502.classifier.Feature;
 import com.cs.comp7502.classifier.Stage;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 public class Adaboost {
 
@@ -13,93 +14,282 @@ public class Adaboost {
     static int NON_FACE = -1;
 
     public static Stage learn(List<Feature> features, List<File> faces, List<File> nonFaces){
-        return learn(features, faces.toArray(new File[faces.size()]), nonFaces.toArray(new File[nonFaces.size()]));
+        return learn(features, TrainingSet.load(faces, nonFaces));
     }
 
     public static Stage learn(List<Feature> features, File[] faces, File[] nonFaces){
-        Stage stage = new Stage();
-        int maxTrainingRounds = features.size();
-        List<TrainedImage> images = new ArrayList<>();
-        double posWeight = 1.0 / (2.0 * faces.length);
-        double negWeight = 1.0 / (2.0 * nonFaces.length);
-        double sumOfPosWeight = 0.5;
-        double sumOfNegWeight = 0.5;
-        ArrayList<Feature> decisionStumps = new ArrayList<>();
-        double stageThreshold = 0.0;
+        return learn(features, TrainingSet.load(Arrays.asList(faces), Arrays.asList(nonFaces)));
+    }
 
-        for (File face : faces)
-            images.add(new TrainedImage(FACE, face, posWeight));
+    /**
+     * Boosts one stage on samples already decoded in memory, one round per feature
+     *
+     * @param features     feature of each round
+     * @param trainingSet  faces and non faces
+     * @return stage with the features of every round
+     */
+    public static Stage learn(List<Feature> features, TrainingSet trainingSet){
+        return learn(features, new FeatureValueTable(trainingSet), null);
+    }
 
-        for (File nonFace: nonFaces)
-            images.add(new TrainedImage(NON_FACE, nonFace, negWeight));
+    /**
+     * Boosts one stage with the feature values of the table, so a feature already used by an earlier stage costs a
+     * single sweep over its presorted samples
+     *
+     * @param features feature of each round
+     * @param table    feature values of the training set
+     * @param active   samples of the training set to learn from, null for all of them
+     * @return stage with the features of every round
+     */
+    public static Stage learn(final List<Feature> features, final FeatureValueTable table, final boolean[] active){
+        StageBuilder stageBuilder = new StageBuilder(table, active);
+        for (int round = 0; round < features.size(); round++) {
+            final Feature feature = features.get(round);
+            stageBuilder.addRound((weights, sumOfPosWeight, sumOfNegWeight) ->
+                    new Candidate(feature, sweep(table.getColumn(feature), table, weights, active, sumOfPosWeight, sumOfNegWeight)), false);
+        }
+        return stageBuilder.getStage(features.size());
+    }
 
-        // using list of faces and non faces make a list of TrainedImages with labels and weights set to 1/ total pos and neg respectively
+    /**
+     * Boosts one stage as in Viola-Jones: every round takes the feature with the lowest weighted error among all the
+     * candidates, e.g. {@link Feature#generateAllFeatures()}. The candidates are searched in parallel on the common
+     * fork-join pool and the stage holds copies of the chosen ones, the candidates are left unchanged
+     *
+     * @param candidates features to choose from in every round, at least one
+     * @param rounds     number of features of the stage
+     * @param table      feature values of the training set
+     * @param active     samples of the training set to learn from, null for all of them
+     * @return stage with the best feature of every round
+     */
+    public static Stage learn(final List<Feature> candidates, int rounds, final FeatureValueTable table, final boolean[] active){
+        if (candidates.isEmpty()) throw new IllegalArgumentException("no candidate features");
+        StageBuilder stageBuilder = new StageBuilder(table, active);
+        for (int round = 0; round < rounds; round++) {
+            stageBuilder.addBestFeature(candidates);
+        }
+        return stageBuilder.getStage(rounds);
+    }
+
+    /**
+     * Boosting of one stage a round at a time, so that a cascade can grow a stage until it is good enough without
+     * boosting its first rounds again
+     */
+    public static class StageBuilder {
+        private final FeatureValueTable table;
+        private final boolean[] active;
+        private final double[] weights;
+        private double sumOfPosWeight = 0.5;
+        private double sumOfNegWeight = 0.5;
+        private final List<Feature> features = new ArrayList<>();
+
+        /**
+         * @param table  feature values of the training set
+         * @param active samples of the training set to learn from, null for all of them, read only here
+         */
+        public StageBuilder(FeatureValueTable table, boolean[] active) {
+            this.table = table;
+            this.active = active == null ? null : active.clone();
+            int sampleCount = table.getTrainingSet().size();
+
+            // weights start at 1 / (2 * number of faces) and 1 / (2 * number of non faces), 0 for the inactive samples
+            int faceCount = 0;
+            int nonFaceCount = 0;
+            for (int sample = 0; sample < sampleCount; sample++) {
+                if (active != null && !active[sample]) continue;
+                if (table.getLabel(sample) == FACE) faceCount++;
+                else nonFaceCount++;
+            }
+            weights = new double[sampleCount];
+            for (int sample = 0; sample < sampleCount; sample++) {
+                if (active != null && !active[sample]) continue;
+                weights[sample] = table.getLabel(sample) == FACE ? 1.0 / (2.0 * faceCount) : 1.0 / (2.0 * nonFaceCount);
+            }
+        }
+
+        /**
+         * Boosts one more round with the candidate of lowest error
+         *
+         * @param candidates features to choose from, at least one, left unchanged
+         * @return copy of the chosen candidate added to the stage
+         */
+        public Feature addBestFeature(final List<Feature> candidates) {
+            if (candidates.isEmpty()) throw new IllegalArgumentException("no candidate features");
+            return addRound((weights, sumOfPosWeight, sumOfNegWeight) -> ForkJoinPool.commonPool().invoke(
+                    new BestFeatureSearch(candidates, 0, candidates.size(), table, weights, active, sumOfPosWeight, sumOfNegWeight)), true);
+        }
+
+        /**
+         * @return number of rounds boosted so far
+         */
+        public int size() {
+            return features.size();
+        }
+
+        /**
+         * @param rounds number of first rounds the stage is made of
+         * @return new stage of the features of the first rounds, with the threshold boosting gives them
+         */
+        public Stage getStage(int rounds) {
+            double stageThreshold = 0.0;
+            for (int round = 0; round < rounds; round++) {
+                stageThreshold += features.get(round).getWeight();
+            }
+            Stage stage = new Stage();
+            stage.setStageThreshold(stageThreshold / 2);
+            stage.setClassifierList(new ArrayList<>(features.subList(0, rounds)));
+            return stage;
+        }
+
+        /**
+         * @param copy add a copy of the chosen feature to the stage instead of the feature itself
+         */
+        private Feature addRound(RoundSearch search, boolean copy) {
+            int sampleCount = weights.length;
 
-        for (int round = 0; round < maxTrainingRounds;  round++) {
             // 0. normalize the weights
             double sumOfWeight = sumOfPosWeight + sumOfNegWeight;
             sumOfPosWeight /= sumOfWeight;
             sumOfNegWeight /= sumOfWeight;
-            for (TrainedImage image : images) {
-                double oldWeight = image.getWeight();
-                image.setWeight(oldWeight / sumOfWeight);
+            for (int sample = 0; sample < sampleCount; sample++) {
+                weights[sample] /= sumOfWeight;
             }
 
-            // 1. find best stump, and the return values from the best stump should contain
-            // error, threshold, polarity, and (optional) classified correct or not
-            BestStump bestStump = findBestStump(features.get(round), images, sumOfPosWeight, sumOfNegWeight);
+            // 1. find best stump with a sweep over the presorted feature values
+            Candidate best = search.search(weights, sumOfPosWeight, sumOfNegWeight);
+            Feature feature = copy ? copy(best.feature) : best.feature;
+            feature.setThreshold(best.stump.threshold);
+            feature.setError(best.stump.error);
+            feature.setPolarity(best.stump.polarity);
 
             // 2. calculate the beta = error / (1 - error)
-            // 3. calculate the alpha = log(1 / beta), but I am not sure the base of the log
-            double error = bestStump.getFeature().getError();
+            // 3. calculate the alpha = log(1 / beta)
+            double error = feature.getError();
             if (error <= 0) error = 0.001;
             double beta = error / (1 - error);
             double alpha = Math.log10(1.0 / beta);
-            bestStump.getFeature().setWeight(alpha);
-            stageThreshold += alpha;
-
-            // 4. update the weights of training samples
-            // if the sample is classified correct, newWeight = oldWeight * beta
-            // if the sample is classified wrong, don't change the weight
-            //
-            // 5. (optional) update total sum of positive / negative weight based on pre-assigned label
-            double threshold = bestStump.getFeature().getThreshold();
-            int polarity = bestStump.getFeature().getPolarity();
-
-            for (TrainedImage image : images) {
-
-                boolean isFace = ((double) polarity * image.featureValue) < (polarity * threshold);
-                if (isFace && image.getLabel() == FACE || !isFace && image.getLabel() == NON_FACE){
-                    double oldWeight = image.weight;
-                    double newWeight = image.weight * beta;
-                    image.weight = newWeight;
-
-                    if (image.label == FACE)
-                        sumOfPosWeight += -oldWeight + newWeight;
+            feature.setWeight(alpha);
+
+            // 4. multiply the weights of the correctly classified samples by beta
+            FeatureValueTable.Column column = table.getColumn(best.feature);
+            double threshold = feature.getThreshold();
+            int polarity = feature.getPolarity();
+            for (int sample = 0; sample < sampleCount; sample++) {
+                if (active != null && !active[sample]) continue;
+                boolean isFace = ((double) polarity * column.getValue(sample)) < (polarity * threshold);
+                int label = table.getLabel(sample);
+                if (isFace && label == FACE || !isFace && label == NON_FACE) {
+                    double oldWeight = weights[sample];
+                    weights[sample] = oldWeight * beta;
+
+                    if (label == FACE)
+                        sumOfPosWeight += -oldWeight + weights[sample];
                     else
-                        sumOfNegWeight += -oldWeight + newWeight;
+                        sumOfNegWeight += -oldWeight + weights[sample];
                 }
             }
 
-            // 6. add the best stump with alpha (the weight of this stump) into this stage
-            decisionStumps.add(bestStump.getFeature());
+            // 5. add the best stump with alpha (the weight of this stump) into this stage
+            features.add(feature);
+            return feature;
+        }
+    }
+
+    /**
+     * Chooses the feature of one round
+     */
+    private interface RoundSearch {
+        Candidate search(double[] weights, double sumOfPosWeight, double sumOfNegWeight);
+    }
+
+    private static Feature copy(Feature feature) {
+        return new Feature(feature.getType(), feature.getX(), feature.getY(), feature.getWidth(), feature.getHeight());
+    }
+
+    /**
+     * Best threshold and polarity of a feature in one pass over its presorted samples, same error as
+     * {@link #findBestStump(Feature, TrainingSet, List, double, double)} without sorting
+     *
+     * @param weights weight of every sample of the training set
+     * @param active  samples taken into account, null for all of them
+     */
+    public static BestStump findBestStump(Feature feature, FeatureValueTable.Column column, FeatureValueTable table, double[] weights,
+                                          boolean[] active, double sumOfPosWeight, double sumOfNegWeight) {
+        Stump stump = sweep(column, table, weights, active, sumOfPosWeight, sumOfNegWeight);
+        feature.setThreshold(stump.threshold);
+        feature.setError(stump.error);
+        feature.setPolarity(stump.polarity);
+        return new BestStump(feature, null);
+    }
+
+    /**
+     * Sweep of {@link #findBestStump(Feature, FeatureValueTable.Column, FeatureValueTable, double[], boolean[], double, double)},
+     * it only reads its arguments so that many features can be searched at the same time
+     */
+    private static Stump sweep(FeatureValueTable.Column column, FeatureValueTable table, double[] weights,
+                               boolean[] active, double sumOfPosWeight, double sumOfNegWeight) {
+        double eMin = 2; // min error cannot be larger than 1
+        int ePolarity = 0;
+        double eThreshold = 0;
+        double sumPosBelowT = 0;
+        double sumNegBelowT = 0;
+
+        int size = column.size();
+        int rank = nextActive(column, active, 0);
+        while (rank < size) {
+            int sample = column.getSample(rank);
+            int next = nextActive(column, active, rank + 1);
+            // the last sample has no threshold above it
+            if (next >= size) break;
+
+            if (table.getLabel(sample) == FACE) {
+                sumPosBelowT += weights[sample];
+            } else {
+                sumNegBelowT += weights[sample];
+            }
+
+            double sumNegAboveT = (sumOfNegWeight - sumNegBelowT);
+            if (sumNegAboveT < 0) sumNegAboveT = 0.001;
+            double sumPosAboveT = (sumOfPosWeight - sumPosBelowT);
+            if (sumPosAboveT < 0) sumPosAboveT = 0.001;
+            double ePos = sumPosBelowT + sumNegAboveT;
+            double eNeg = sumNegBelowT + sumPosAboveT;
+            double threshold = ((column.getValue(sample) + column.getValue(column.getSample(next))) / 2);
+
+            int polarity;
+            double e;
+            // a face is p * value < p * threshold, so faces above the threshold (error ePos) have polarity -1
+            if (ePos < eNeg) {
+                e = ePos;
+                polarity = -1;
+            } else {
+                e = eNeg;
+                polarity = 1;
+            }
+
+            if (e < eMin) {
+                eMin = e;
+                ePolarity = polarity;
+                eThreshold = threshold;
+            }
+            rank = next;
         }
 
-        stage.setStageThreshold(stageThreshold / 2);
-        stage.setClassifierList(decisionStumps);
-        return stage;
+        return new Stump(eMin, eThreshold, ePolarity);
+    }
+
+    private static int nextActive(FeatureValueTable.Column column, boolean[] active, int rank) {
+        if (active == null) return rank;
+        while (rank < column.size() && !active[column.getSample(rank)]) rank++;
+        return rank;
     }
 
     // find best stump
     // input: one feature, a set of training samples
-    public static BestStump findBestStump(Feature feature, List<TrainedImage> data, double sumOfPosWeight, double sumOfNegWeight) {
+    public static BestStump findBestStump(Feature feature, TrainingSet trainingSet, List<TrainedImage> data, double sumOfPosWeight, double sumOfNegWeight) {
         // 1. calculate feature values for all training samples based on given feature
         for (TrainedImage datum : data){
-            try {
-                datum.setFeatureValue(feature.getValue(datum.getFile()));
-            } catch (IOException e) {
-                throw new RuntimeException("Unable to open training data set", e);
-            }
+            datum.setFeatureValue(feature.getValue(trainingSet.getImage(datum.getSample())));
         }
 
         // 2. sort the feature value list
@@ -133,12 +323,13 @@ public class Adaboost {
 
             int polarity;
             double e;
+            // a face is p * value < p * threshold, so faces above the threshold (error ePos) have polarity -1
             if (ePos < eNeg) {
                 e = ePos;
-                polarity = 1;
+                polarity = -1;
             } else {
                 e = eNeg;
-                polarity = -1;
+                polarity = 1;
             }
 
             // 4. get the threshold and polarity with minimum error
@@ -161,6 +352,86 @@ public class Adaboost {
         return new BestStump(feature, data);
     }
 
+    /**
+     * Threshold, polarity and weighted error of the best split of one feature
+     */
+    static final class Stump {
+        final double error;
+        final double threshold;
+        final int polarity;
+
+        Stump(double error, double threshold, int polarity) {
+            this.error = error;
+            this.threshold = threshold;
+            this.polarity = polarity;
+        }
+    }
+
+    private static final class Candidate {
+        final Feature feature;
+        final Stump stump;
+
+        Candidate(Feature feature, Stump stump) {
+            this.feature = feature;
+            this.stump = stump;
+        }
+    }
+
+    /**
+     * Fork-join search of the candidate with the lowest error, ties go to the first candidate so the result does not
+     * depend on how the range is split
+     */
+    private static class BestFeatureSearch extends RecursiveTask<Candidate> {
+        private static final long serialVersionUID = 1L;
+
+        // candidates searched by one task without splitting
+        private static final int CHUNK = 256;
+
+        private final List<Feature> candidates;
+        private final int from;
+        private final int to;
+        private final FeatureValueTable table;
+        private final double[] weights;
+        private final boolean[] active;
+        private final double sumOfPosWeight;
+        private final double sumOfNegWeight;
+
+        BestFeatureSearch(List<Feature> candidates, int from, int to, FeatureValueTable table, double[] weights, boolean[] active,
+                          double sumOfPosWeight, double sumOfNegWeight) {
+            this.candidates = candidates;
+            this.from = from;
+            this.to = to;
+            this.table = table;
+            this.weights = weights;
+            this.active = active;
+            this.sumOfPosWeight = sumOfPosWeight;
+            this.sumOfNegWeight = sumOfNegWeight;
+        }
+
+        @Override
+        protected Candidate compute() {
+            if (to - from <= CHUNK) {
+                Candidate best = null;
+                for (int i = from; i < to; i++) {
+                    Feature feature = candidates.get(i);
+                    Stump stump = sweep(table.getColumn(feature), table, weights, active, sumOfPosWeight, sumOfNegWeight);
+                    if (best == null || stump.error < best.stump.error) best = new Candidate(feature, stump);
+                }
+                return best;
+            }
+
+            int middle = (from + to) >>> 1;
+            BestFeatureSearch left = new BestFeatureSearch(candidates, from, middle, table, weights, active, sumOfPosWeight, sumOfNegWeight);
+            BestFeatureSearch right = new BestFeatureSearch(candidates, middle, to, table, weights, active, sumOfPosWeight, sumOfNegWeight);
+            left.fork();
+            Candidate rightBest = right.compute();
+            Candidate leftBest = left.join();
+            if (leftBest == null) return rightBest;
+            if (rightBest == null) return leftBest;
+            return rightBest.stump.error < leftBest.stump.error ? rightBest : leftBest;
+        }
+    }
+
     static class BestStump {
         private Feature feature;
         private List<TrainedImage> trainedImages;
@@ -182,14 +453,15 @@ public class Adaboost {
 
     static class TrainedImage implements Comparable<TrainedImage> {
         int label;
-        File file;
+        // index of the sample in the training set
+        int sample;
         double weight;
 
         int featureValue;
 
-        public TrainedImage(int label, File file, double weight) {
+        public TrainedImage(int label, int sample, double weight) {
             this.label = label;
-            this.file = file;
+            this.sample = sample;
             this.weight = weight;
         }
 
@@ -201,12 +473,12 @@ public class Adaboost {
             this.label = label;
         }
 
-        public File getFile() {
-            return file;
+        public int getSample() {
+            return sample;
         }
 
-        public void setFile(File file) {
-            this.file = file;
+        public void setSample(int sample) {
+            this.sample = sample;
         }
 
         public double getWeight() {
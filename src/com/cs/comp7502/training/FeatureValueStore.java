@@ -0,0 +1,321 @@
+package com.cs.comp7502.training;
+
+import com.cs.comp7502.classifier.Feature;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Presorted feature values of a training set kept in a memory-mapped file instead of the heap.
+ *
+ * Every feature on every sample of a full training set takes several GB, e.g. 160k features on 10k samples, so the
+ * columns of {@link FeatureValueTable} are computed once into a file and read back through mapped chunks, the page
+ * cache keeps the columns in use resident and the garbage collector never sees them. A column holds the value of the
+ * feature on each sample, in 16 bits when they fit and 32 bits otherwise, then the samples sorted by that value, in
+ * 16 bits up to 65536 samples. Features are looked up by type, position and size so the file can be reused by any
+ * training run on the same samples.
+ *
+ * <pre>
+ * header   magic, version, samples, faces, features, chunk size (ints), fingerprint of the samples (long)
+ * index    per feature: type, x, y, width, height, encoding (bytes), 2 unused bytes, offset of the column (long)
+ * columns  values then sorted samples, a column never crosses a chunk boundary
+ * </pre>
+ */
+public class FeatureValueStore {
+
+    private static final int MAGIC = 0x46565354; // FVST
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int INDEX_ENTRY_SIZE = 16;
+    // largest mapping of a FileChannel is 2 GB, 1 GB leaves room to never split a column
+    private static final int DEFAULT_CHUNK_SIZE = 1 << 30;
+    // features computed in memory at a time while the file is written
+    private static final int BATCH_SIZE = 256;
+
+    private static final int WIDE_VALUES = 1;
+    private static final int WIDE_SAMPLES = 2;
+
+    private final int sampleCount;
+    private final int faceCount;
+    private final long fingerprint;
+    private final int chunkSize;
+    private final ByteBuffer[] chunks;
+    // geometry of the feature to its index entry
+    private final Map<Long, Integer> featureIndex;
+    private final byte[] encodings;
+    private final long[] offsets;
+
+    private FeatureValueStore(int sampleCount, int faceCount, long fingerprint, int chunkSize, ByteBuffer[] chunks,
+                              Map<Long, Integer> featureIndex, byte[] encodings, long[] offsets) {
+        this.sampleCount = sampleCount;
+        this.faceCount = faceCount;
+        this.fingerprint = fingerprint;
+        this.chunkSize = chunkSize;
+        this.chunks = chunks;
+        this.featureIndex = featureIndex;
+        this.encodings = encodings;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Opens the store of the file when it was built for the same samples and holds every feature, builds it otherwise
+     */
+    public static FeatureValueStore openOrBuild(TrainingSet trainingSet, List<Feature> features, File file) throws IOException {
+        if (file.isFile()) {
+            try {
+                FeatureValueStore store = open(file);
+                if (store.matches(trainingSet) && store.containsAll(features)) return store;
+            } catch (IOException e) {
+                // a truncated or foreign file, rebuilt
+            }
+        }
+        return build(trainingSet, features, file);
+    }
+
+    /**
+     * Computes the column of every feature on the training set and writes them to the file, the features are computed
+     * in parallel a batch at a time so the heap only ever holds one batch. The store is written to a temporary file
+     * first and then replaces the file, so the file is never a partly written store
+     */
+    public static FeatureValueStore build(TrainingSet trainingSet, List<Feature> features, File file) throws IOException {
+        return build(trainingSet, features, file, DEFAULT_CHUNK_SIZE);
+    }
+
+    static FeatureValueStore build(final TrainingSet trainingSet, final List<Feature> features, File file, int chunkSize) throws IOException {
+        int sampleCount = trainingSet.size();
+        boolean wideSamples = sampleCount > 0x10000;
+        long position = HEADER_SIZE + (long) INDEX_ENTRY_SIZE * features.size();
+        ByteBuffer index = ByteBuffer.allocate(INDEX_ENTRY_SIZE * features.size()).order(ByteOrder.LITTLE_ENDIAN);
+
+        File temporary = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile out = new RandomAccessFile(temporary, "rw"); FileChannel channel = out.getChannel()) {
+            channel.truncate(0);
+            for (int from = 0; from < features.size(); from += BATCH_SIZE) {
+                final int start = from;
+                final FeatureValueTable.Column[] batch = new FeatureValueTable.Column[Math.min(BATCH_SIZE, features.size() - from)];
+                IntStream.range(0, batch.length).parallel()
+                        .forEach(i -> batch[i] = FeatureValueTable.computeColumn(features.get(start + i), trainingSet));
+
+                for (int i = 0; i < batch.length; i++) {
+                    long geometry = geometry(features.get(start + i));
+                    FeatureValueTable.Column column = batch[i];
+                    boolean wideValues = false;
+                    for (int sample = 0; sample < sampleCount; sample++) {
+                        int value = column.getValue(sample);
+                        if (value < Short.MIN_VALUE || value > Short.MAX_VALUE) {
+                            wideValues = true;
+                            break;
+                        }
+                    }
+                    int length = sampleCount * ((wideValues ? 4 : 2) + (wideSamples ? 4 : 2));
+                    if (length > chunkSize) throw new IllegalArgumentException("column of " + length + " bytes larger than a chunk");
+                    // moves the column to the next chunk rather than splitting it
+                    if (position / chunkSize != (position + length - 1) / chunkSize) {
+                        position = (position / chunkSize + 1) * chunkSize;
+                    }
+
+                    ByteBuffer data = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+                    for (int sample = 0; sample < sampleCount; sample++) {
+                        if (wideValues) data.putInt(column.getValue(sample));
+                        else data.putShort((short) column.getValue(sample));
+                    }
+                    for (int rank = 0; rank < sampleCount; rank++) {
+                        if (wideSamples) data.putInt(column.getSample(rank));
+                        else data.putChar((char) column.getSample(rank));
+                    }
+                    data.flip();
+                    write(channel, data, position);
+
+                    putGeometry(index, geometry);
+                    index.put((byte) ((wideValues ? WIDE_VALUES : 0) | (wideSamples ? WIDE_SAMPLES : 0)));
+                    index.putShort((short) 0);
+                    index.putLong(position);
+                    position += length;
+                }
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(sampleCount).putInt(trainingSet.getFaceCount()).putInt(features.size())
+                    .putInt(chunkSize).putLong(fingerprint(trainingSet));
+            header.flip();
+            index.flip();
+            write(channel, header, 0);
+            write(channel, index, HEADER_SIZE);
+            channel.force(false);
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return open(file);
+    }
+
+    /**
+     * Maps a store built by {@link #build(TrainingSet, List, File)}
+     */
+    public static FeatureValueStore open(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r"); FileChannel channel = in.getChannel()) {
+            ByteBuffer header = read(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) throw new IOException(file + " is not a feature value store");
+            int sampleCount = header.getInt();
+            int faceCount = header.getInt();
+            int featureCount = header.getInt();
+            int chunkSize = header.getInt();
+            long fingerprint = header.getLong();
+            long size = channel.size();
+            if (sampleCount < 0 || faceCount < 0 || faceCount > sampleCount || featureCount < 0 || chunkSize <= 0
+                    || HEADER_SIZE + (long) INDEX_ENTRY_SIZE * featureCount > size) {
+                throw new IOException(file + " has a corrupt header");
+            }
+
+            ByteBuffer index = read(channel, HEADER_SIZE, INDEX_ENTRY_SIZE * featureCount);
+            Map<Long, Integer> featureIndex = new HashMap<>(featureCount * 2);
+            byte[] encodings = new byte[featureCount];
+            long[] offsets = new long[featureCount];
+            for (int i = 0; i < featureCount; i++) {
+                long geometry = 0;
+                for (int b = 0; b < 5; b++) {
+                    geometry = geometry << 8 | (index.get() & 0xff);
+                }
+                featureIndex.put(geometry, i);
+                encodings[i] = index.get();
+                index.getShort();
+                offsets[i] = index.getLong();
+                long length = (long) sampleCount * (((encodings[i] & WIDE_VALUES) != 0 ? 4 : 2) + ((encodings[i] & WIDE_SAMPLES) != 0 ? 4 : 2));
+                if (offsets[i] < 0 || offsets[i] + length > size || length > 0 && offsets[i] / chunkSize != (offsets[i] + length - 1) / chunkSize) {
+                    throw new IOException(file + " is truncated or corrupt");
+                }
+            }
+
+            // the mappings stay valid once the channel is closed
+            ByteBuffer[] chunks = new ByteBuffer[(int) ((size + chunkSize - 1) / chunkSize)];
+            for (int c = 0; c < chunks.length; c++) {
+                long start = (long) c * chunkSize;
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(chunkSize, size - start));
+                chunks[c] = chunk.order(ByteOrder.LITTLE_ENDIAN);
+            }
+            return new FeatureValueStore(sampleCount, faceCount, fingerprint, chunkSize, chunks, featureIndex, encodings, offsets);
+        }
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    public int getFeatureCount() {
+        return offsets.length;
+    }
+
+    /**
+     * @return whether the store was built on the same samples, in the same order
+     */
+    public boolean matches(TrainingSet trainingSet) {
+        return trainingSet.size() == sampleCount && trainingSet.getFaceCount() == faceCount && fingerprint(trainingSet) == fingerprint;
+    }
+
+    public boolean containsAll(List<Feature> features) {
+        for (Feature feature : features) {
+            if (!featureIndex.containsKey(geometry(feature))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return column of the feature read from the mapped file, null when the store does not hold the feature
+     */
+    public FeatureValueTable.Column getColumn(Feature feature) {
+        Integer i = featureIndex.get(geometry(feature));
+        if (i == null) return null;
+        int offset = (int) (offsets[i] % chunkSize);
+        return new MappedColumn(chunks[(int) (offsets[i] / chunkSize)], offset, sampleCount, encodings[i]);
+    }
+
+    private static class MappedColumn extends FeatureValueTable.Column {
+        private final ByteBuffer chunk;
+        private final int valuesOffset;
+        private final int samplesOffset;
+        private final int size;
+        private final boolean wideValues;
+        private final boolean wideSamples;
+
+        MappedColumn(ByteBuffer chunk, int offset, int size, int encoding) {
+            this.chunk = chunk;
+            this.size = size;
+            this.wideValues = (encoding & WIDE_VALUES) != 0;
+            this.wideSamples = (encoding & WIDE_SAMPLES) != 0;
+            this.valuesOffset = offset;
+            this.samplesOffset = offset + size * (wideValues ? 4 : 2);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public int getValue(int sample) {
+            // absolute reads only, the chunk is shared by every column and thread
+            return wideValues ? chunk.getInt(valuesOffset + 4 * sample) : chunk.getShort(valuesOffset + 2 * sample);
+        }
+
+        @Override
+        public int getSample(int rank) {
+            return wideSamples ? chunk.getInt(samplesOffset + 4 * rank) : chunk.getChar(samplesOffset + 2 * rank);
+        }
+    }
+
+    /**
+     * @return type, x, y, width and height of the feature, a byte each
+     */
+    private static long geometry(Feature feature) {
+        int[] values = {feature.getType(), feature.getX(), feature.getY(), feature.getWidth(), feature.getHeight()};
+        long geometry = 0;
+        for (int value : values) {
+            if (value < 0 || value > 0xff) throw new IllegalArgumentException("feature " + Arrays.toString(values) + " does not fit in the store");
+            geometry = geometry << 8 | value;
+        }
+        return geometry;
+    }
+
+    private static void putGeometry(ByteBuffer buffer, long geometry) {
+        for (int b = 4; b >= 0; b--) {
+            buffer.put((byte) (geometry >>> (8 * b)));
+        }
+    }
+
+    /**
+     * Hash of the labels and integral images of the samples, to tell whether a store belongs to a training set
+     */
+    private static long fingerprint(TrainingSet trainingSet) {
+        long fingerprint = 17;
+        for (int sample = 0; sample < trainingSet.size(); sample++) {
+            fingerprint = 31 * fingerprint + trainingSet.getLabel(sample);
+            fingerprint = 31 * fingerprint + Arrays.hashCode(trainingSet.getImage(sample).getData());
+        }
+        return fingerprint;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer data, long position) throws IOException {
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (data.hasRemaining()) {
+            if (channel.read(data, position + data.position()) < 0) throw new IOException("truncated feature value store");
+        }
+        data.flip();
+        return data;
+    }
+}
@@ -0,0 +1,128 @@
+package com.cs.comp7502.training;
+
+import com.cs.comp7502.classifier.Feature;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Value of each feature on every sample of a training set, with the samples sorted by that value.
+ *
+ * Only the weights change between boosting rounds, so the column of a feature and its sorted order are computed the
+ * first time the feature is used and every later search for its best threshold is a single sweep in that order, as
+ * in Viola-Jones. Columns cover the whole training set, a learning run on part of the samples skips the others.
+ * Features are told apart by identity.
+ *
+ * The columns are kept on the heap unless the table is backed by a {@link FeatureValueStore}, then the features of the
+ * store are read from its mapped file and only the others are computed on the heap.
+ */
+public class FeatureValueTable {
+
+    private final TrainingSet trainingSet;
+    private final int[] labels;
+    private final FeatureValueStore store;
+    private final Map<Feature, Column> columns = new ConcurrentHashMap<>();
+
+    public FeatureValueTable(TrainingSet trainingSet) {
+        this(trainingSet, null);
+    }
+
+    /**
+     * @param store columns precomputed on the same training set, or null
+     */
+    public FeatureValueTable(TrainingSet trainingSet, FeatureValueStore store) {
+        if (store != null && !store.matches(trainingSet)) throw new IllegalArgumentException("store built on other samples");
+        this.trainingSet = trainingSet;
+        this.store = store;
+        this.labels = new int[trainingSet.size()];
+        for (int sample = 0; sample < labels.length; sample++) {
+            labels[sample] = trainingSet.getLabel(sample);
+        }
+    }
+
+    public TrainingSet getTrainingSet() {
+        return trainingSet;
+    }
+
+    /**
+     * @return {@link Adaboost#FACE} or {@link Adaboost#NON_FACE}
+     */
+    public int getLabel(int sample) {
+        return labels[sample];
+    }
+
+    /**
+     * @return column of the feature, read from the store or computed and sorted on first use
+     */
+    public Column getColumn(Feature feature) {
+        return columns.computeIfAbsent(feature, f -> {
+            Column column = store == null ? null : store.getColumn(f);
+            return column != null ? column : computeColumn(f, trainingSet);
+        });
+    }
+
+    /**
+     * @return number of columns computed so far
+     */
+    public int getColumnCount() {
+        return columns.size();
+    }
+
+    static Column computeColumn(Feature feature, TrainingSet trainingSet) {
+        int size = trainingSet.size();
+        int[] values = new int[size];
+        // value in the high bits and sample in the low bits, sorting them sorts the samples by value then index
+        long[] keys = new long[size];
+        for (int sample = 0; sample < size; sample++) {
+            values[sample] = feature.getValue(trainingSet.getImage(sample));
+            keys[sample] = ((long) values[sample] << 32) | sample;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[size];
+        for (int rank = 0; rank < size; rank++) {
+            order[rank] = (int) keys[rank];
+        }
+        return new ArrayColumn(values, order);
+    }
+
+    public abstract static class Column {
+
+        public abstract int size();
+
+        /**
+         * @return value of the feature on the sample
+         */
+        public abstract int getValue(int sample);
+
+        /**
+         * @return sample with the given rank in increasing feature value
+         */
+        public abstract int getSample(int rank);
+    }
+
+    private static class ArrayColumn extends Column {
+        private final int[] values;
+        private final int[] order;
+
+        ArrayColumn(int[] values, int[] order) {
+            this.values = values;
+            this.order = order;
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+
+        @Override
+        public int getValue(int sample) {
+            return values[sample];
+        }
+
+        @Override
+        public int getSample(int rank) {
+            return order[rank];
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.cs.comp7502.training;
 
 import com.cs.comp7502.utils.ImageUtils;
+import com.cs.comp7502.utils.IntegralImage;
 import com.cs.comp7502.classifier.Feature;
 
 import javax.imageio.ImageIO;
@@ -79,10 +80,14 @@ public class Trainer {
     }
 
     public static List<WHaarClassifier> train(int[][] integralI, int type) {
+        return train(IntegralImage.fromIntegral(integralI), type);
+    }
+
+    public static List<WHaarClassifier> train(IntegralImage integralI, int type) {
         List<WHaarClassifier> featureList = new ArrayList<>();
 
-        int imageH = integralI.length;
-        int imageW = integralI[0].length;
+        int imageH = integralI.getHeight();
+        int imageW = integralI.getWidth();
 
         int windowScale = imageH / ORIGINAL_WINDOW_SIZE;
         int maxH = imageH / windowScale;
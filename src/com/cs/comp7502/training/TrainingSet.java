@@ -0,0 +1,97 @@
+package com.cs.comp7502.training;
+
+import com.cs.comp7502.utils.ImageUtils;
+import com.cs.comp7502.utils.IntegralImage;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Training samples held in memory as integral images, the faces first and then the non faces.
+ *
+ * Every sample is decoded once, in parallel, when the set is loaded, so the boosting rounds only read integral images
+ * instead of decoding a PNG for every feature of every round. Samples are referenced by their index in the set.
+ */
+public class TrainingSet {
+
+    private final List<IntegralImage> faces;
+    private final List<IntegralImage> nonFaces;
+
+    /**
+     * @param faces    integral images of the faces, shared, not copied
+     * @param nonFaces integral images of the non faces, shared, not copied
+     */
+    public TrainingSet(List<IntegralImage> faces, List<IntegralImage> nonFaces) {
+        this.faces = faces;
+        this.nonFaces = nonFaces;
+    }
+
+    /**
+     * Decodes the images of both lists
+     */
+    public static TrainingSet load(List<File> faces, List<File> nonFaces) {
+        return new TrainingSet(loadIntegralImages(faces), loadIntegralImages(nonFaces));
+    }
+
+    /**
+     * Decodes the images in parallel
+     *
+     * @return integral images in the order of the files
+     */
+    public static List<IntegralImage> loadIntegralImages(final List<File> files) {
+        final IntegralImage[] images = new IntegralImage[files.size()];
+        IntStream.range(0, files.size()).parallel().forEach(i -> images[i] = loadIntegralImage(files.get(i)));
+        return new ArrayList<>(Arrays.asList(images));
+    }
+
+    private static IntegralImage loadIntegralImage(File file) {
+        BufferedImage image;
+        try {
+            image = ImageIO.read(file);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to open training data set", e);
+        }
+        if (image == null) throw new RuntimeException("Unable to decode " + file);
+        return new IntegralImage(ImageUtils.buildImageArray(image, true));
+    }
+
+    public List<IntegralImage> getFaces() {
+        return faces;
+    }
+
+    public List<IntegralImage> getNonFaces() {
+        return nonFaces;
+    }
+
+    public int size() {
+        return faces.size() + nonFaces.size();
+    }
+
+    public int getFaceCount() {
+        return faces.size();
+    }
+
+    public int getNonFaceCount() {
+        return nonFaces.size();
+    }
+
+    /**
+     * @param sample index of the sample in the set
+     */
+    public IntegralImage getImage(int sample) {
+        return sample < faces.size() ? faces.get(sample) : nonFaces.get(sample - faces.size());
+    }
+
+    /**
+     * @return {@link Adaboost#FACE} or {@link Adaboost#NON_FACE}
+     */
+    public int getLabel(int sample) {
+        return sample < faces.size() ? Adaboost.FACE : Adaboost.NON_FACE;
+    }
+}
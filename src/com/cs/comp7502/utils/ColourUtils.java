@@ -12,9 +12,16 @@ public class ColourUtils {
 
     public static int convertToG(int r, int g, int b, Grayscale type) {
         if (type == Grayscale.LUMINANCE) {
-            return (int) Math.round((30*r +59*g +11*b)/100.0);
+            return luminance(r, g, b);
         } else {
             return (int) Math.round((r+g+b)/3.0);
         }
     }
+
+    /**
+     * Luminance rounded to the nearest integer, with integer arithmetic only
+     */
+    public static int luminance(int r, int g, int b) {
+        return (30 * r + 59 * g + 11 * b + 50) / 100;
+    }
 }
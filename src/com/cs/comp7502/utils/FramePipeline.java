@@ -0,0 +1,268 @@
+package com.cs.comp7502.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multi threaded pipeline for video frames.
+ *
+ * A source thread produces frames and every step runs on its own thread, taking frames from a bounded queue filled by
+ * the thread before it. Each frame is a single object that the steps fill in turn, e.g. capture, preprocessing,
+ * detection and rendering, so the throughput is the one of the slowest step instead of the sum of all of them.
+ *
+ * With drop oldest a full queue drops its oldest frame to make room for the new one, so a slow step only skips frames
+ * and never holds back the steps before it, which is what a live camera needs. Without it a full queue blocks the
+ * thread feeding it. Dropped frames go to the {@link DropListener}, so that the resources they hold can be released or
+ * reused.
+ *
+ * @param <T> frame type
+ */
+public class FramePipeline<T> {
+
+    public interface Source<T> {
+        /**
+         * @return next frame, or null at the end of the stream
+         */
+        T next() throws Exception;
+    }
+
+    public interface Step<T> {
+        void process(T frame) throws Exception;
+    }
+
+    public interface DropListener<T> {
+        /**
+         * Called on the thread that dropped the frame, the frame is not used by the pipeline any more
+         */
+        void dropped(T frame);
+    }
+
+    private final int queueCapacity;
+    private final boolean dropOldest;
+    private final List<StepStats> stats = new ArrayList<>();
+    private final List<Step<T>> steps = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private DropListener<T> dropListener;
+    private volatile Throwable failure;
+
+    /**
+     * @param queueCapacity number of frames waiting in front of each step
+     * @param dropOldest    drop the oldest waiting frame when a queue is full instead of waiting for room
+     */
+    public FramePipeline(int queueCapacity, boolean dropOldest) {
+        if (queueCapacity < 1) throw new IllegalArgumentException("queue capacity must be at least 1");
+        this.queueCapacity = queueCapacity;
+        this.dropOldest = dropOldest;
+    }
+
+    /**
+     * Appends a step, steps must be added before {@link #start(Source)}
+     */
+    public FramePipeline<T> addStep(String name, Step<T> step) {
+        if (!threads.isEmpty()) throw new IllegalStateException("pipeline already started");
+        steps.add(step);
+        stats.add(new StepStats(name));
+        return this;
+    }
+
+    /**
+     * Sets the listener of the frames dropped from full queues, must be set before {@link #start(Source)}
+     */
+    public FramePipeline<T> onDrop(DropListener<T> dropListener) {
+        if (!threads.isEmpty()) throw new IllegalStateException("pipeline already started");
+        this.dropListener = dropListener;
+        return this;
+    }
+
+    /**
+     * Starts the source and step threads, the pipeline ends when the source returns null and every queued frame has
+     * gone through the steps, when a step throws or when {@link #stop()} is called
+     */
+    public void start(Source<T> source) {
+        if (!threads.isEmpty()) throw new IllegalStateException("pipeline already started");
+        if (steps.isEmpty()) throw new IllegalStateException("pipeline has no step");
+
+        List<BlockingQueue<T>> queues = new ArrayList<>();
+        for (int i = 0; i < steps.size(); i++) {
+            queues.add(new ArrayBlockingQueue<T>(queueCapacity));
+        }
+
+        final Worker sourceWorker = new Worker(null) {
+            @Override
+            boolean runOnce() throws Exception {
+                T frame = source.next();
+                if (frame == null) return false;
+                hand(frame, queues.get(0), stats.get(0));
+                return true;
+            }
+        };
+        threads.add(new Thread(sourceWorker, "pipeline-source"));
+
+        Worker upstream = sourceWorker;
+        for (int i = 0; i < steps.size(); i++) {
+            final Step<T> step = steps.get(i);
+            final StepStats stepStats = stats.get(i);
+            final BlockingQueue<T> input = queues.get(i);
+            final BlockingQueue<T> output = i + 1 < steps.size() ? queues.get(i + 1) : null;
+            final StepStats outputStats = i + 1 < steps.size() ? stats.get(i + 1) : null;
+            Worker worker = new Worker(upstream) {
+                @Override
+                boolean runOnce() throws Exception {
+                    T frame = input.poll(10, TimeUnit.MILLISECONDS);
+                    if (frame == null) return !(this.upstream.finished && input.isEmpty());
+
+                    long time = System.nanoTime();
+                    step.process(frame);
+                    stepStats.record(System.nanoTime() - time);
+                    if (output != null) hand(frame, output, outputStats);
+                    return true;
+                }
+            };
+            threads.add(new Thread(worker, "pipeline-" + stepStats.getName()));
+            stepStats.queue = input;
+            upstream = worker;
+        }
+
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Interrupts every thread, frames still queued are discarded
+     */
+    public void stop() {
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Waits for the end of the pipeline
+     *
+     * @throws RuntimeException if a step or the source threw
+     */
+    public void await() throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure != null) throw new RuntimeException(failure);
+    }
+
+    /**
+     * @return statistics of every step, in pipeline order
+     */
+    public List<StepStats> getStats() {
+        return stats;
+    }
+
+    private void hand(T frame, BlockingQueue<T> queue, StepStats stepStats) throws InterruptedException {
+        if (!dropOldest) {
+            // wait for room, unless a later step failed and the queue will never drain
+            while (!queue.offer(frame, 10, TimeUnit.MILLISECONDS)) {
+                if (failure != null) return;
+            }
+            return;
+        }
+        // only this thread adds to the queue, so after a poll there is room
+        while (!queue.offer(frame)) {
+            T dropped = queue.poll();
+            if (dropped != null) {
+                stepStats.dropped.incrementAndGet();
+                if (dropListener != null) dropListener.dropped(dropped);
+            }
+        }
+    }
+
+    private abstract class Worker implements Runnable {
+        final Worker upstream;
+        volatile boolean finished;
+
+        Worker(Worker upstream) {
+            this.upstream = upstream;
+        }
+
+        /**
+         * @return false once there is nothing left to do
+         */
+        abstract boolean runOnce() throws Exception;
+
+        @Override
+        public void run() {
+            try {
+                while (!Thread.currentThread().isInterrupted() && failure == null) {
+                    if (!runOnce()) break;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                finished = true;
+            }
+        }
+    }
+
+    /**
+     * Counters of one step, updated by the pipeline threads while it runs
+     */
+    public static class StepStats {
+        private final String name;
+        private final AtomicLong processed = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private volatile long lastNanos;
+        private volatile BlockingQueue<?> queue;
+
+        StepStats(String name) {
+            this.name = name;
+        }
+
+        void record(long nanos) {
+            lastNanos = nanos;
+            totalNanos.addAndGet(nanos);
+            processed.incrementAndGet();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return frames waiting in front of the step
+         */
+        public int getQueueDepth() {
+            return queue == null ? 0 : queue.size();
+        }
+
+        public long getProcessed() {
+            return processed.get();
+        }
+
+        /**
+         * @return frames dropped from the queue of the step because it was full
+         */
+        public long getDropped() {
+            return dropped.get();
+        }
+
+        public double getAverageLatencyMillis() {
+            long count = processed.get();
+            return count == 0 ? 0 : totalNanos.get() / 1e6 / count;
+        }
+
+        public double getLastLatencyMillis() {
+            return lastNanos / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: queue %d, processed %d, dropped %d, %.1f ms", name, getQueueDepth(), getProcessed(), getDropped(), getAverageLatencyMillis());
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.cs.comp7502.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Grayscale image pyramid, each level is the previous one downscaled by a constant factor.
+ *
+ * Level 0 is the input image, level k is the input downscaled by scaleFactor^k with area averaging: every pixel is the
+ * mean of the input pixels it covers, read from the integral image of the input. Each level has its own integral
+ * image so a 24x24 cascade can be run on it directly.
+ *
+ * The level images and integral images are kept between calls to {@link #build(int[][], int, boolean)} and only
+ * reallocated when a frame needs more or larger levels, so processing video of a constant size reaches a steady state
+ * without any allocation.
+ */
+public class ImagePyramid {
+
+    private final double scaleFactor;
+    // downscaled image of each level, null for level 0 which is built from the input itself
+    private final List<int[][]> images = new ArrayList<>();
+    private final List<IntegralImage> integralImages = new ArrayList<>();
+    private double[] scales = new double[0];
+    private int levelCount;
+
+    /**
+     * @param scaleFactor downscaling between two levels, e.g. 1.25
+     */
+    public ImagePyramid(double scaleFactor) {
+        if (scaleFactor <= 1) throw new IllegalArgumentException("scale factor must be larger than 1");
+        this.scaleFactor = scaleFactor;
+    }
+
+    public double getScaleFactor() {
+        return scaleFactor;
+    }
+
+    /**
+     * Builds every level whose width and height are at least minSize
+     *
+     * @param image       grayscale image
+     * @param minSize     smallest level size, usually the 24 pixel window
+     * @param withSquared also build the squared integral images
+     */
+    public void build(int[][] image, int minSize, boolean withSquared) {
+        int height = image.length;
+        int width = image[0].length;
+
+        levelCount = 0;
+        double scale = 1;
+        while ((int) (width / scale) >= minSize && (int) (height / scale) >= minSize) {
+            int levelW = (int) (width / scale);
+            int levelH = (int) (height / scale);
+            IntegralImage integralI = level(levelW, levelH);
+            if (levelCount == 0) {
+                integralI.build(image, withSquared);
+            } else {
+                int[][] levelImage = images.get(levelCount);
+                downscale(integralImages.get(0), levelImage, levelW, levelH, scale);
+                integralI.build(levelImage, withSquared);
+            }
+            scales[levelCount] = scale;
+            levelCount++;
+            scale *= scaleFactor;
+        }
+    }
+
+    /**
+     * Returns the integral image for the next level, growing the pools when needed
+     */
+    private IntegralImage level(int width, int height) {
+        if (levelCount == integralImages.size()) {
+            images.add(levelCount == 0 ? null : new int[height][width]);
+            integralImages.add(new IntegralImage(width, height));
+            scales = Arrays.copyOf(scales, integralImages.size());
+        }
+        int[][] levelImage = images.get(levelCount);
+        if (levelCount > 0 && (levelImage.length < height || levelImage[0].length < width)) {
+            images.set(levelCount, new int[height][width]);
+        }
+        IntegralImage integralI = integralImages.get(levelCount);
+        integralI.resize(width, height);
+        return integralI;
+    }
+
+    private static void downscale(IntegralImage source, int[][] target, int width, int height, double scale) {
+        int sourceH = source.getHeight();
+        int sourceW = source.getWidth();
+        for (int x = 0; x < height; x++) {
+            int top = (int) (x * scale);
+            int bottom = Math.min(sourceH, Math.max(top + 1, (int) ((x + 1) * scale)));
+            int[] row = target[x];
+            for (int y = 0; y < width; y++) {
+                int left = (int) (y * scale);
+                int right = Math.min(sourceW, Math.max(left + 1, (int) ((y + 1) * scale)));
+                int area = (bottom - top) * (right - left);
+                row[y] = (source.sum(top, left, right - left, bottom - top) + area / 2) / area;
+            }
+        }
+    }
+
+    public int getLevelCount() {
+        return levelCount;
+    }
+
+    public IntegralImage getIntegralImage(int level) {
+        return integralImages.get(level);
+    }
+
+    /**
+     * @return size of one pixel of the level in input pixels
+     */
+    public double getScale(int level) {
+        return scales[level];
+    }
+}
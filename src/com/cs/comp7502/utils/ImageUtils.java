@@ -4,6 +4,7 @@ import com.cs.comp7502.utils.ColourUtils;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
 import java.awt.image.Raster;
 import java.util.*;
 import java.util.List;
@@ -25,6 +26,31 @@ public class ImageUtils {
         }
     }
 
+    /**
+     * Builds the integral image of a colour image, TYPE_3BYTE_BGR images such as webcam frames are read straight from
+     * their bytes without any intermediate grayscale array
+     *
+     * @param input       colour image
+     * @param integralI   integral image to reuse, or null
+     * @param withSquared also build the squared integral image
+     * @return integralI resized to the image, or a new integral image if it was null
+     */
+    public static IntegralImage buildIntegralImage(BufferedImage input, IntegralImage integralI, boolean withSquared) {
+        int w = input.getWidth();
+        int h = input.getHeight();
+        if (integralI == null) {
+            integralI = new IntegralImage(w, h);
+        } else {
+            integralI.resize(w, h);
+        }
+        if (input.getType() == BufferedImage.TYPE_3BYTE_BGR && input.getRaster().getParent() == null) {
+            integralI.buildFromBgr(((DataBufferByte) input.getRaster().getDataBuffer()).getData(), withSquared);
+        } else {
+            integralI.build(buildImageArray(input, false), withSquared);
+        }
+        return integralI;
+    }
+
     public static int[][] buildImageArray(BufferedImage input, boolean isGrayscale){
         int w = input.getWidth();
         int h = input.getHeight();
@@ -59,67 +85,19 @@ public class ImageUtils {
         return sum;
     }
 
+    /**
+     * Merges the overlapping windows of each face into their bounding window, see {@link WindowGrouper}. The input
+     * windows are left as they are
+     *
+     * @param rectangles windows found by the detector
+     * @param overlap    fraction of the smaller window two windows must share to be merged
+     * @param threshold  groups with this many windows or fewer are dropped
+     * @return one window per group
+     */
     public static List<Rectangle> mergeWindows(List<Rectangle> rectangles, double overlap, int threshold) {
-        List<Rectangle> output = new ArrayList<>();
-        Stack<Stack<Rectangle>> partitions = new Stack<>();
-
-        Stack<Rectangle> rects = new Stack<>();
-        rects.addAll(rectangles);
-
-        for (Rectangle r1 : rectangles){
-            int r1Area = r1.width * r1.height;
-            rects.pop();
-            
-            if (partitions.isEmpty()) {
-                Stack<Rectangle> stack = new Stack<>();
-                stack.push(r1);
-                partitions.push(stack);
-            } else {
-                boolean merge = false;
-                for (int i = 0; i < partitions.size(); i++) {
-                    for (int j = 0; j < partitions.get(i).size(); j++) {
-                        Rectangle r2 = partitions.get(i).get(j);
-                        int r2Area = r2.width * r2.height;
-                        Rectangle intersect = r1.intersection(r2);
-                        int intersectArea = intersect.width * intersect.height;
-
-                        if ((r1Area == r2Area) && (intersectArea >= overlap * r1Area))
-                            merge = true;
-                        else if ((r1Area < r2Area) && (intersectArea >= overlap * r1Area))
-                            merge = true;
-                        else if ((r2Area < r1Area) && (intersectArea >= overlap * r2Area))
-                            merge = true;
-
-                        if (merge) break;
-                    }
-                    if (merge) {
-                        partitions.get(i).push(r1);
-                        break;
-                    }
-                }
-                if (!merge) {
-                    Stack<Rectangle> stack = new Stack<>();
-                    stack.push(r1);
-                    partitions.push(stack);
-                }
-
-
-            }
-        }
-
-        for (int i = 0; i < partitions.size(); i++) {
-            if (partitions.get(i).size() <= threshold)
-                continue;
-
-            Rectangle merged = partitions.get(i).get(0);
-            for (int j = 1; j < partitions.get(i).size(); j++) {
-                merged.add(partitions.get(i).get(j));
-            }
-
-            output.add(merged);
-
-        }
-
-        return output;
+        WindowGrouper grouper = new WindowGrouper(overlap);
+        grouper.setMinNeighbours(threshold);
+        grouper.setMerge(WindowGrouper.Merge.UNION);
+        return grouper.group(rectangles);
     }
 }
@@ -0,0 +1,187 @@
+package com.cs.comp7502.utils;
+
+import java.util.Arrays;
+
+/**
+ * Integral image stored in a single flat int array.
+ *
+ * The array has one extra zero row at the top and one extra zero column on the left, so the integral of pixel (x, y)
+ * is at index (x + 1) * stride + (y + 1) and every rectangle sum is four lookups without any bounds branches.
+ * As in the rest of the project x is the row and y is the column.
+ *
+ * The squared integral image, needed for the window variance, is optional and kept as longs since squared sums of
+ * a webcam frame do not fit in an int.
+ */
+public class IntegralImage {
+
+    private int width;
+    private int height;
+    private int stride;
+    private int[] data;
+    private long[] squared;
+    private boolean hasSquared;
+
+    public IntegralImage(int width, int height) {
+        resize(width, height);
+    }
+
+    public IntegralImage(int[][] image) {
+        this(image[0].length, image.length);
+        build(image, false);
+    }
+
+    /**
+     * Wraps an integral image computed with {@link ImageUtils#buildIntegralImage(int[][], int[][], int, int)}
+     */
+    public static IntegralImage fromIntegral(int[][] integralI) {
+        IntegralImage integralImage = new IntegralImage(integralI[0].length, integralI.length);
+        for (int x = 0; x < integralImage.height; x++) {
+            System.arraycopy(integralI[x], 0, integralImage.data, (x + 1) * integralImage.stride + 1, integralImage.width);
+        }
+        return integralImage;
+    }
+
+    /**
+     * Changes the size of the image, the buffers are only reallocated when they are too small
+     * so an instance can be reused across frames
+     */
+    public void resize(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.stride = width + 1;
+        int size = (height + 1) * stride;
+        if (data == null || data.length < size) {
+            data = new int[size];
+            squared = null;
+        } else {
+            // the padding row must be zero, the padding column is cleared by build
+            Arrays.fill(data, 0, stride, 0);
+            if (squared != null) Arrays.fill(squared, 0, stride, 0);
+        }
+        hasSquared = false;
+    }
+
+    /**
+     * @param image       grayscale image, at least height x width
+     * @param withSquared also build the squared integral image
+     */
+    public void build(int[][] image, boolean withSquared) {
+        build(image, 0, 0, withSquared);
+    }
+
+    /**
+     * Builds the integral image of the height x width part of the image whose top left pixel is (offsetX, offsetY)
+     *
+     * @param image       grayscale image
+     * @param offsetX     first row
+     * @param offsetY     first column
+     * @param withSquared also build the squared integral image
+     */
+    public void build(int[][] image, int offsetX, int offsetY, boolean withSquared) {
+        if (withSquared && squared == null) squared = new long[data.length];
+        hasSquared = withSquared;
+        for (int x = 0; x < height; x++) {
+            int[] row = image[offsetX + x];
+            int index = (x + 1) * stride;
+            data[index] = 0;
+            int rowSum = 0;
+            for (int y = 0; y < width; y++) {
+                rowSum += row[offsetY + y];
+                data[index + y + 1] = data[index + y + 1 - stride] + rowSum;
+            }
+            if (withSquared) {
+                squared[index] = 0;
+                long rowSquaredSum = 0;
+                for (int y = 0; y < width; y++) {
+                    long g = row[offsetY + y];
+                    rowSquaredSum += g * g;
+                    squared[index + y + 1] = squared[index + y + 1 - stride] + rowSquaredSum;
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the integral image straight from 8 bit BGR pixels, as in a TYPE_3BYTE_BGR BufferedImage or a CV_8UC3 Mat,
+     * in a single pass without a grayscale image in between. The luminance is computed in integers and is the same
+     * as {@link ColourUtils#convertToG(int, int, int, ColourUtils.Grayscale)}
+     *
+     * @param bgr         height rows of width pixels, 3 bytes per pixel
+     * @param withSquared also build the squared integral image
+     */
+    public void buildFromBgr(byte[] bgr, boolean withSquared) {
+        if (bgr.length < width * height * 3) throw new IllegalArgumentException("expected " + width * height * 3 + " bytes, got " + bgr.length);
+        if (withSquared && squared == null) squared = new long[data.length];
+        hasSquared = withSquared;
+        int i = 0;
+        for (int x = 0; x < height; x++) {
+            int index = (x + 1) * stride;
+            data[index] = 0;
+            if (withSquared) squared[index] = 0;
+            int rowSum = 0;
+            long rowSquaredSum = 0;
+            for (int y = 0; y < width; y++, i += 3) {
+                int g = ColourUtils.luminance(bgr[i + 2] & 0xff, bgr[i + 1] & 0xff, bgr[i] & 0xff);
+                rowSum += g;
+                data[index + y + 1] = data[index + y + 1 - stride] + rowSum;
+                if (withSquared) {
+                    rowSquaredSum += g * g;
+                    squared[index + y + 1] = squared[index + y + 1 - stride] + rowSquaredSum;
+                }
+            }
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * @return the backing array, the integral of pixel (x, y) is at (x + 1) * stride + (y + 1)
+     */
+    public int[] getData() {
+        return data;
+    }
+
+    public boolean hasSquared() {
+        return hasSquared;
+    }
+
+    /**
+     * @return integral of pixel (x, y), the sum of every pixel above and to the left of it inclusive
+     */
+    public int get(int x, int y) {
+        return data[(x + 1) * stride + y + 1];
+    }
+
+    /**
+     * Sum of the rectangle whose top left pixel is (x, y)
+     *
+     * @param x row
+     * @param y column
+     * @param w width
+     * @param h height
+     */
+    public int sum(int x, int y, int w, int h) {
+        int topLeft = x * stride + y;
+        int bottomLeft = topLeft + h * stride;
+        return data[bottomLeft + w] - data[bottomLeft] - data[topLeft + w] + data[topLeft];
+    }
+
+    /**
+     * Sum of the squared pixels of the rectangle whose top left pixel is (x, y), requires the squared integral image
+     */
+    public long sumSquared(int x, int y, int w, int h) {
+        int topLeft = x * stride + y;
+        int bottomLeft = topLeft + h * stride;
+        return squared[bottomLeft + w] - squared[bottomLeft] - squared[topLeft + w] + squared[topLeft];
+    }
+}
@@ -0,0 +1,136 @@
+package com.cs.comp7502.utils;
+
+/**
+ * Block mask of the parts of a video frame that changed, for cameras that do not move.
+ *
+ * The frame is divided into square blocks whose mean intensity is read from the integral image of the frame in O(1).
+ * A block is moving when its mean differs by more than the threshold from the running background or from the previous
+ * frame, the background follows the frame at the learning rate. Comparing with the previous frame as well keeps a
+ * block that returns to the background from being taken as static right after it changed.
+ *
+ * {@link #isMoving(int, int, int, int)} tells in O(1) whether a window overlaps a moving block, from a summed table
+ * of the mask.
+ */
+public class MotionMask {
+
+    private final int blockSize;
+    // mean intensity difference above which a block is moving
+    private double threshold = 8;
+    // weight of the current frame in the running background
+    private double learningRate = 0.05;
+
+    private int width;
+    private int height;
+    private int blockRows;
+    private int blockCols;
+    private double[] background;
+    private double[] previous;
+    private boolean[] moving;
+    // summed table of the mask with a zero row and column in front, (blockRows + 1) x (blockCols + 1)
+    private int[] movingIntegral;
+    private int movingBlocks;
+
+    /**
+     * @param blockSize side of a block in pixels, e.g. 16
+     */
+    public MotionMask(int blockSize) {
+        if (blockSize < 1) throw new IllegalArgumentException("block size must be at least 1");
+        this.blockSize = blockSize;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    public void setThreshold(double threshold) {
+        this.threshold = threshold;
+    }
+
+    public double getLearningRate() {
+        return learningRate;
+    }
+
+    public void setLearningRate(double learningRate) {
+        this.learningRate = learningRate;
+    }
+
+    /**
+     * Computes the mask of the frame and updates the background with it. The first frame, and any frame whose size
+     * differs from the previous one, is moving everywhere
+     *
+     * @param frame integral image of the frame
+     */
+    public void update(IntegralImage frame) {
+        boolean reset = background == null || frame.getWidth() != width || frame.getHeight() != height;
+        if (reset) {
+            width = frame.getWidth();
+            height = frame.getHeight();
+            blockRows = (height + blockSize - 1) / blockSize;
+            blockCols = (width + blockSize - 1) / blockSize;
+            background = new double[blockRows * blockCols];
+            previous = new double[blockRows * blockCols];
+            moving = new boolean[blockRows * blockCols];
+            movingIntegral = new int[(blockRows + 1) * (blockCols + 1)];
+        }
+
+        movingBlocks = 0;
+        for (int row = 0; row < blockRows; row++) {
+            int x = row * blockSize;
+            int h = Math.min(blockSize, height - x);
+            for (int col = 0; col < blockCols; col++) {
+                int y = col * blockSize;
+                int w = Math.min(blockSize, width - y);
+                double mean = (double) frame.sum(x, y, w, h) / (w * h);
+
+                int b = row * blockCols + col;
+                if (reset) {
+                    background[b] = mean;
+                    moving[b] = true;
+                } else {
+                    moving[b] = Math.abs(mean - background[b]) > threshold || Math.abs(mean - previous[b]) > threshold;
+                    background[b] += learningRate * (mean - background[b]);
+                }
+                previous[b] = mean;
+                if (moving[b]) movingBlocks++;
+            }
+        }
+
+        int stride = blockCols + 1;
+        for (int row = 0; row < blockRows; row++) {
+            int rowSum = 0;
+            for (int col = 0; col < blockCols; col++) {
+                if (moving[row * blockCols + col]) rowSum++;
+                movingIntegral[(row + 1) * stride + col + 1] = movingIntegral[row * stride + col + 1] + rowSum;
+            }
+        }
+    }
+
+    /**
+     * @param x row of the window
+     * @param y column of the window
+     * @param w width
+     * @param h height
+     * @return true if the window overlaps a moving block
+     */
+    public boolean isMoving(int x, int y, int w, int h) {
+        int top = Math.max(0, x / blockSize);
+        int left = Math.max(0, y / blockSize);
+        int bottom = Math.min(blockRows, (x + h - 1) / blockSize + 1);
+        int right = Math.min(blockCols, (y + w - 1) / blockSize + 1);
+        if (top >= bottom || left >= right) return false;
+        int stride = blockCols + 1;
+        return movingIntegral[bottom * stride + right] - movingIntegral[top * stride + right]
+                - movingIntegral[bottom * stride + left] + movingIntegral[top * stride + left] > 0;
+    }
+
+    /**
+     * @return fraction of the blocks of the last frame that are moving
+     */
+    public double getMovingRatio() {
+        return blockRows * blockCols == 0 ? 0 : (double) movingBlocks / (blockRows * blockCols);
+    }
+}
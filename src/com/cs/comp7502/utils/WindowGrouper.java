@@ -0,0 +1,328 @@
+package com.cs.comp7502.utils;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Groups the overlapping windows that the detector finds around one face into a single window.
+ *
+ * Two windows overlap when their intersection covers at least the overlap fraction of the smaller one, and a group
+ * is every window connected through overlapping pairs. The windows are sorted into size classes with a grid of cells
+ * of half the window size each, and every group is found by a breadth first search that only looks at the cells near
+ * the window it expands. A window leaves the grids as soon as the search reaches it, so the thousands of hits piled on
+ * one face are each compared a few times instead of with every other hit, and windows spread over the image cost
+ * about O(n) too. The input windows are never modified.
+ */
+public class WindowGrouper {
+
+    public enum Merge {
+        /** weighted mean of the position and size of the windows of the group */
+        AVERAGE,
+        /** smallest window containing every window of the group */
+        UNION
+    }
+
+    private final double overlap;
+    // groups with this many windows or fewer are dropped as false positives
+    private int minNeighbours;
+    private Merge merge = Merge.AVERAGE;
+    // overlap tests of the last call to group
+    private long comparisons;
+
+    /**
+     * @param overlap fraction of the smaller window two windows must share to be grouped, e.g. 0.5
+     */
+    public WindowGrouper(double overlap) {
+        this.overlap = overlap;
+    }
+
+    public double getOverlap() {
+        return overlap;
+    }
+
+    public int getMinNeighbours() {
+        return minNeighbours;
+    }
+
+    public void setMinNeighbours(int minNeighbours) {
+        this.minNeighbours = minNeighbours;
+    }
+
+    public Merge getMerge() {
+        return merge;
+    }
+
+    public void setMerge(Merge merge) {
+        this.merge = merge;
+    }
+
+    /**
+     * @return number of pairs of windows whose overlap the last call to {@link #group} tested, a measure of its cost
+     * that does not depend on the machine
+     */
+    public long getComparisons() {
+        return comparisons;
+    }
+
+    public List<Rectangle> group(List<Rectangle> windows) {
+        return group(windows, null);
+    }
+
+    /**
+     * @param windows windows to group
+     * @param weights positive weight of each window in the average, e.g. its score, or null for equal weights
+     * @return one window per group of more than minNeighbours windows, in the order of the first window of each group
+     */
+    public List<Rectangle> group(List<Rectangle> windows, double[] weights) {
+        int n = windows.size();
+        if (weights != null && weights.length != n) throw new IllegalArgumentException("one weight per window expected");
+        comparisons = 0;
+        if (n == 0) return new ArrayList<>();
+
+        int[] left = new int[n];
+        int[] top = new int[n];
+        int[] right = new int[n];
+        int[] bottom = new int[n];
+        long[] area = new long[n];
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        // windows less than a factor sqrt(2) apart in size share a class
+        int[] classOf = new int[n];
+        int[] classCount = new int[64];
+        int[] classWidth = new int[64];
+        int[] classHeight = new int[64];
+        long[] classArea = new long[64];
+        Arrays.fill(classArea, Long.MAX_VALUE);
+        for (int i = 0; i < n; i++) {
+            Rectangle window = windows.get(i);
+            left[i] = window.x;
+            top[i] = window.y;
+            right[i] = window.x + window.width;
+            bottom[i] = window.y + window.height;
+            area[i] = (long) window.width * window.height;
+            minX = Math.min(minX, left[i]);
+            minY = Math.min(minY, top[i]);
+            maxX = Math.max(maxX, left[i]);
+            maxY = Math.max(maxY, top[i]);
+            int c = (int) (2 * Math.log(Math.max(1, Math.max(window.width, window.height))) / Math.log(2));
+            classOf[i] = c;
+            classCount[c]++;
+            classWidth[c] = Math.max(classWidth[c], window.width);
+            classHeight[c] = Math.max(classHeight[c], window.height);
+            classArea[c] = Math.min(classArea[c], area[i]);
+        }
+
+        SizeClass[] classes = new SizeClass[64];
+        for (int c = 0; c < classes.length; c++) {
+            if (classCount[c] > 0) classes[c] = new SizeClass(classCount[c], classWidth[c], classHeight[c], classArea[c], minX, minY, maxX, maxY);
+        }
+        // every window is listed in the cell of its top left corner, in the grid of its size class
+        int[] cellOf = new int[n];
+        // windows per cell counted in cellEnd first, then turned into the bounds of the lists
+        for (int i = 0; i < n; i++) {
+            SizeClass sizeClass = classes[classOf[i]];
+            cellOf[i] = sizeClass.cell(left[i], top[i]);
+            sizeClass.cellEnd[cellOf[i]]++;
+        }
+        for (SizeClass sizeClass : classes) {
+            if (sizeClass == null) continue;
+            for (int cell = 0; cell < sizeClass.cellStart.length; cell++) {
+                int count = sizeClass.cellEnd[cell];
+                sizeClass.cellStart[cell] = cell == 0 ? 0 : sizeClass.cellEnd[cell - 1];
+                sizeClass.cellEnd[cell] = sizeClass.cellStart[cell] + count;
+            }
+            System.arraycopy(sizeClass.cellStart, 0, sizeClass.fill, 0, sizeClass.fill.length);
+        }
+        int[] position = new int[n];
+        for (int i = 0; i < n; i++) {
+            SizeClass sizeClass = classes[classOf[i]];
+            position[i] = sizeClass.fill[cellOf[i]]++;
+            sizeClass.cellWindows[position[i]] = i;
+        }
+
+        // breadth first search of each group, a window reached by the search leaves the grids, so a window is only
+        // compared again while it does not overlap enough, and a dense pile of windows is consumed in about O(n)
+        int[] parent = new int[n];
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+        }
+        boolean[] reached = new boolean[n];
+        int[] queue = new int[n];
+        long tested = 0;
+        for (int first = 0; first < n; first++) {
+            if (reached[first]) continue;
+            reached[first] = true;
+            classes[classOf[first]].remove(first, cellOf, position);
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = first;
+            while (head < tail) {
+                int i = queue[head++];
+                for (SizeClass sizeClass : classes) {
+                    if (sizeClass == null || sizeClass.size == 0) continue;
+                    // the intersection with a window of the class is at least this wide and high when it is large
+                    // enough, so the corner of that window is within these bounds of the edges of i
+                    double minArea = overlap * Math.min(area[i], sizeClass.minArea);
+                    int minWidth = Math.max(1, (int) (minArea / Math.min(bottom[i] - top[i], sizeClass.height)));
+                    int minHeight = Math.max(1, (int) (minArea / Math.min(right[i] - left[i], sizeClass.width)));
+                    int firstCol = Math.max(0, left[i] + minWidth - sizeClass.width - minX) / sizeClass.cellSize;
+                    int lastCol = Math.min(sizeClass.cols - 1, Math.max(0, right[i] - minWidth - minX) / sizeClass.cellSize);
+                    int firstRow = Math.max(0, top[i] + minHeight - sizeClass.height - minY) / sizeClass.cellSize;
+                    int lastRow = Math.min(sizeClass.rows - 1, Math.max(0, bottom[i] - minHeight - minY) / sizeClass.cellSize);
+                    for (int row = firstRow; row <= lastRow; row++) {
+                        for (int col = firstCol; col <= lastCol; col++) {
+                            int cell = row * sizeClass.cols + col;
+                            int k = sizeClass.cellStart[cell];
+                            while (k < sizeClass.cellEnd[cell]) {
+                                int j = sizeClass.cellWindows[k];
+                                tested++;
+                                int x = Math.max(left[i], left[j]);
+                                int y = Math.max(top[i], top[j]);
+                                int width = Math.min(right[i], right[j]) - x;
+                                int height = Math.min(bottom[i], bottom[j]) - y;
+                                if (width > 0 && height > 0 && (long) width * height >= overlap * Math.min(area[i], area[j])) {
+                                    // the last window of the cell takes the place of j
+                                    sizeClass.remove(j, cellOf, position);
+                                    reached[j] = true;
+                                    union(parent, i, j);
+                                    queue[tail++] = j;
+                                } else {
+                                    k++;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        comparisons = tested;
+
+        return merge(windows, weights, parent);
+    }
+
+    /**
+     * Grid of the windows of one size class not reached yet, each cell lists the windows whose top left corner it
+     * holds, the lists of all cells are stored back to back
+     */
+    private static class SizeClass {
+        private final int minX;
+        private final int minY;
+        // largest width and height and smallest area of the windows of the class
+        private final int width;
+        private final int height;
+        private final long minArea;
+        private final int cellSize;
+        private final int cols;
+        private final int rows;
+        private final int[] cellStart;
+        private final int[] cellEnd;
+        private final int[] fill;
+        private final int[] cellWindows;
+        private int size;
+
+        SizeClass(int count, int width, int height, long minArea, int minX, int minY, int maxX, int maxY) {
+            this.width = width;
+            this.height = height;
+            this.minArea = minArea;
+            this.size = count;
+            // cells of half the window size, so the cells near a window hold few windows too far to overlap it,
+            // enlarged until there are at most a few cells per window
+            int cellSize = Math.max(1, Math.max(width, height) / 2);
+            while ((long) ((maxX - minX) / cellSize + 1) * ((maxY - minY) / cellSize + 1) > 4L * count + 16) {
+                cellSize *= 2;
+            }
+            this.cellSize = cellSize;
+            this.cols = (maxX - minX) / cellSize + 1;
+            this.rows = (maxY - minY) / cellSize + 1;
+            this.cellStart = new int[cols * rows];
+            this.cellEnd = new int[cols * rows];
+            this.fill = new int[cols * rows];
+            this.cellWindows = new int[count];
+            this.minX = minX;
+            this.minY = minY;
+        }
+
+        int cell(int x, int y) {
+            return (y - minY) / cellSize * cols + (x - minX) / cellSize;
+        }
+
+        void remove(int i, int[] cellOf, int[] position) {
+            int cell = cellOf[i];
+            int last = cellWindows[--cellEnd[cell]];
+            cellWindows[position[i]] = last;
+            position[last] = position[i];
+            size--;
+        }
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            // path halving
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int i, int j) {
+        int rootI = find(parent, i);
+        int rootJ = find(parent, j);
+        // the smaller index is the root, so a group is represented by its first window
+        if (rootI < rootJ) {
+            parent[rootJ] = rootI;
+        } else if (rootJ < rootI) {
+            parent[rootI] = rootJ;
+        }
+    }
+
+    private List<Rectangle> merge(List<Rectangle> windows, double[] weights, int[] parent) {
+        int n = windows.size();
+        int[] groupOf = new int[n];
+        Arrays.fill(groupOf, -1);
+        int groupCount = 0;
+        int[] count = new int[n];
+        double[] weightSum = new double[n];
+        double[] sumX = new double[n];
+        double[] sumY = new double[n];
+        double[] sumWidth = new double[n];
+        double[] sumHeight = new double[n];
+        Rectangle[] bounds = new Rectangle[n];
+
+        for (int i = 0; i < n; i++) {
+            int root = find(parent, i);
+            if (groupOf[root] < 0) groupOf[root] = groupCount++;
+            int g = groupOf[root];
+            Rectangle window = windows.get(i);
+            double weight = weights == null ? 1 : weights[i];
+            count[g]++;
+            weightSum[g] += weight;
+            sumX[g] += weight * window.x;
+            sumY[g] += weight * window.y;
+            sumWidth[g] += weight * window.width;
+            sumHeight[g] += weight * window.height;
+            if (merge == Merge.UNION) {
+                if (bounds[g] == null) {
+                    bounds[g] = new Rectangle(window);
+                } else {
+                    bounds[g].add(window);
+                }
+            }
+        }
+
+        List<Rectangle> output = new ArrayList<>();
+        for (int g = 0; g < groupCount; g++) {
+            if (count[g] <= minNeighbours) continue;
+            if (merge == Merge.UNION) {
+                output.add(bounds[g]);
+            } else {
+                output.add(new Rectangle((int) Math.round(sumX[g] / weightSum[g]), (int) Math.round(sumY[g] / weightSum[g]),
+                        (int) Math.round(sumWidth[g] / weightSum[g]), (int) Math.round(sumHeight[g] / weightSum[g])));
+            }
+        }
+        return output;
+    }
+}
@@ -0,0 +1,98 @@
+package com.cs.comp7502;
+
+import com.cs.comp7502.utils.ImageUtils;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BatchDetectorTest {
+
+    @Test
+    public void run() throws Exception {
+        // prepare
+        BatchDetector batchDetector = new BatchDetector(DetectorTest.loadDefaultCascadedClassifier());
+        batchDetector.setThreads(3);
+        List<File> images = BatchDetector.listImages("res/testImages", 0);
+        StringWriter out = new StringWriter();
+
+        // execute
+        BatchDetector.BatchStats stats = batchDetector.run(images, out);
+
+        // verify
+        String[] lines = out.toString().split("\n");
+        assertEquals(2, images.size());
+        assertEquals(images.size(), lines.length);
+        for (int i = 0; i < images.size(); i++) {
+            int[][] image = ImageUtils.buildImageArray(ImageIO.read(images.get(i)), false);
+            int expected = new Detector().detectFaces(image, DetectorTest.loadDefaultCascadedClassifier(), new DetectionParams()).size();
+            JSONObject line = new JSONObject(lines[i]);
+            assertEquals(images.get(i).getPath(), line.getString("image"));
+            assertEquals(expected, line.getJSONArray("faces").length());
+        }
+        assertEquals(2, stats.getImages());
+        assertEquals(0, stats.getFailures());
+        assertTrue(stats.getWindowsEvaluated() > 0);
+        assertTrue(stats.getLatencyMillis(50) <= stats.getLatencyMillis(99));
+    }
+
+    @Test
+    public void run_whenImageCannotBeRead() throws Exception {
+        // prepare
+        File broken = File.createTempFile("broken", ".png");
+        broken.deleteOnExit();
+        Files.write(broken.toPath(), "not an image".getBytes("UTF-8"));
+        List<File> images = BatchDetector.listImages("res/testImages", 0);
+        images.add(1, broken);
+        BatchDetector batchDetector = new BatchDetector(DetectorTest.loadDefaultCascadedClassifier());
+        StringWriter out = new StringWriter();
+
+        // execute
+        BatchDetector.BatchStats stats = batchDetector.run(images, out);
+
+        // verify
+        String[] lines = out.toString().split("\n");
+        assertEquals(2, lines.length);
+        assertEquals(images.get(0).getPath(), new JSONObject(lines[0]).getString("image"));
+        assertEquals(images.get(2).getPath(), new JSONObject(lines[1]).getString("image"));
+        assertEquals(3, stats.getImages());
+        assertEquals(1, stats.getFailures());
+    }
+
+    @Test
+    public void run_whenCsvFrameSequence() throws Exception {
+        // prepare
+        File[] faces = new File("res/testingExamples/faces").listFiles();
+        Path directory = Files.createTempDirectory("frames");
+        for (int i = 0; i < 5; i++) {
+            Files.copy(faces[i].toPath(), directory.resolve(String.format("frame_%03d.png", i + 1)));
+        }
+        BatchDetector batchDetector = new BatchDetector(DetectorTest.loadDefaultCascadedClassifier());
+        batchDetector.setFormat(BatchDetector.Format.CSV);
+        StringWriter out = new StringWriter();
+
+        // execute
+        List<File> images = BatchDetector.listImages(directory.resolve("frame_%03d.png").toString(), 1);
+        batchDetector.run(images, out);
+
+        // verify
+        assertEquals(5, images.size());
+        assertEquals("frame_005.png", images.get(4).getName());
+        String[] lines = out.toString().split("\n");
+        assertEquals("image,x,y,width,height", lines[0]);
+        for (int i = 1; i < lines.length; i++) {
+            assertEquals(5, lines[i].split(",").length);
+        }
+        for (File file : directory.toFile().listFiles()) {
+            file.delete();
+        }
+        directory.toFile().delete();
+    }
+}
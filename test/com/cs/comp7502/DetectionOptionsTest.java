@@ -0,0 +1,58 @@
+package com.cs.comp7502;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.awt.*;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class DetectionOptionsTest {
+
+    @Test
+    public void parse() throws Exception {
+        // prepare
+        String[] args = {"--min-size", "48", "--port", "9000", "--step", "0.5", "--max-detections", "3"};
+
+        // execute
+        DetectionOptions options = DetectionOptions.parse(args, "--port", "--threads");
+
+        // verify
+        assertEquals(48, options.getDetectionParams().getMinFaceSize());
+        assertEquals(0.5, options.getDetectionParams().getStepFraction(), 0);
+        assertEquals(3, options.getDetectionParams().getMaxDetections());
+        assertEquals(9000, options.getInt("--port", 8080));
+        assertEquals(4, options.getInt("--threads", 4));
+        assertNull(options.get("--threads"));
+        assertFalse(options.loadCascadedClassifier().getStages().isEmpty());
+    }
+
+    @Test
+    public void parse_whenInvalid() throws Exception {
+        String[][] invalid = {{"--port", "9000"}, {"--min-size"}, {"--min-size", "large"}};
+        for (String[] args : invalid) {
+            try {
+                DetectionOptions.parse(args, "--threads");
+                fail(Arrays.toString(args) + " must be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void encodeFaces() throws Exception {
+        // execute
+        JSONArray faces = DetectionOptions.encodeFaces(Arrays.asList(new Rectangle(1, 2, 30, 30), new Rectangle(40, 5, 24, 24)));
+
+        // verify
+        assertEquals(2, faces.length());
+        JSONObject face = faces.getJSONObject(1);
+        assertEquals(40, face.getInt("x"));
+        assertEquals(5, face.getInt("y"));
+        assertEquals(24, face.getInt("width"));
+        assertEquals(24, face.getInt("height"));
+    }
+}
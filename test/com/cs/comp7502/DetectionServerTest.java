@@ -0,0 +1,205 @@
+package com.cs.comp7502;
+
+import com.cs.comp7502.classifier.CascadedClassifier;
+import com.cs.comp7502.utils.ImageUtils;
+import com.cs.comp7502.utils.IntegralImage;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class DetectionServerTest {
+
+    @Test
+    public void detect() throws Exception {
+        // prepare
+        CascadedClassifier cascadedClassifier = DetectorTest.loadDefaultCascadedClassifier();
+        File image = writeTestImage();
+        DetectionServer server = new DetectionServer(cascadedClassifier);
+        server.setThreads(2);
+        server.start(0);
+
+        try {
+            // execute
+            Response first = post(server, Files.readAllBytes(image.toPath()));
+            Response second = post(server, Files.readAllBytes(image.toPath()));
+            Response invalid = post(server, "not an image".getBytes(StandardCharsets.UTF_8));
+            Response stats = get(server, "/stats");
+
+            // verify
+            int[][] input = ImageUtils.buildImageArray(ImageIO.read(image), false);
+            List<Rectangle> expected = new Detector().detectFaces(input, cascadedClassifier, new DetectionParams());
+            assertFalse(expected.isEmpty());
+            assertEquals(200, first.status);
+            assertEquals(200, second.status);
+            JSONArray faces = new JSONObject(first.body).getJSONArray("faces");
+            assertEquals(expected.size(), faces.length());
+            for (int i = 0; i < faces.length(); i++) {
+                JSONObject face = faces.getJSONObject(i);
+                assertEquals(expected.get(i), new Rectangle(face.getInt("x"), face.getInt("y"), face.getInt("width"), face.getInt("height")));
+            }
+            assertEquals(faces.toString(), new JSONObject(second.body).getJSONArray("faces").toString());
+            assertEquals(400, invalid.status);
+            assertEquals(200, stats.status);
+            JSONObject jsonStats = new JSONObject(stats.body);
+            assertEquals(3, jsonStats.getLong("requests"));
+            assertEquals(1, jsonStats.getLong("failed"));
+            assertTrue(jsonStats.getDouble("latencyP50") > 0);
+            assertTrue(jsonStats.getDouble("latencyP50") <= jsonStats.getDouble("latencyP99"));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void detect_whenQueueFull() throws Exception {
+        // prepare
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Detector blockingDetector = new Detector() {
+            @Override
+            public List<Rectangle> detectFaces(IntegralImage integralI, CascadedClassifier cascadedClassifier, DetectionParams params) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return super.detectFaces(integralI, cascadedClassifier, params);
+            }
+        };
+        DetectionServer server = new DetectionServer(blockingDetector, DetectorTest.loadDefaultCascadedClassifier());
+        server.setThreads(1);
+        server.setQueueCapacity(1);
+        server.start(0);
+        final byte[] image = Files.readAllBytes(writeTestImage().toPath());
+        ExecutorService clients = Executors.newFixedThreadPool(2);
+
+        try {
+            // execute
+            Future<Response> running = clients.submit(() -> post(server, image));
+            started.await();
+            Future<Response> queued = clients.submit(() -> post(server, image));
+            while (server.getQueuedRequests() < 1) {
+                Thread.sleep(1);
+            }
+            Response rejected = post(server, image);
+            release.countDown();
+
+            // verify
+            assertEquals(503, rejected.status);
+            assertEquals(200, running.get().status);
+            assertEquals(200, queued.get().status);
+            assertEquals(1, server.getRejected());
+            assertEquals(3, server.getRequests());
+        } finally {
+            release.countDown();
+            clients.shutdownNow();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void detect_whenBodyTooLarge() throws Exception {
+        // prepare
+        byte[] image = Files.readAllBytes(writeTestImage().toPath());
+        DetectionServer server = new DetectionServer(DetectorTest.loadDefaultCascadedClassifier());
+        server.setMaxBodySize(image.length - 1);
+        server.start(0);
+
+        try {
+            // execute
+            Response declared = post(server, image);
+            Response chunked = post(server, image, 1024);
+            server.setMaxBodySize(image.length);
+            Response accepted = post(server, image, 1024);
+
+            // verify
+            assertEquals(413, declared.status);
+            assertEquals(413, chunked.status);
+            assertEquals(200, accepted.status);
+            assertEquals(2, server.getFailed());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * PNG file of faces of the testing examples
+     */
+    private static File writeTestImage() throws Exception {
+        int[][] faces = DetectorTest.buildTestImage(4, 2);
+        BufferedImage image = new BufferedImage(faces[0].length, faces.length, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < faces.length; x++) {
+            for (int y = 0; y < faces[0].length; y++) {
+                image.setRGB(y, x, faces[x][y] << 16 | faces[x][y] << 8 | faces[x][y]);
+            }
+        }
+        File file = File.createTempFile("faces", ".png");
+        file.deleteOnExit();
+        ImageIO.write(image, "png", file);
+        return file;
+    }
+
+    private static Response post(DetectionServer server, byte[] body) throws Exception {
+        return post(server, body, 0);
+    }
+
+    /**
+     * @param chunkLength length of the chunks the body is sent in without a Content-Length, 0 to send it whole
+     */
+    private static Response post(DetectionServer server, byte[] body, int chunkLength) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.getPort() + "/detect").openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        if (chunkLength > 0) connection.setChunkedStreamingMode(chunkLength);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+        }
+        return read(connection);
+    }
+
+    private static Response get(DetectionServer server, String path) throws Exception {
+        return read((HttpURLConnection) new URL("http://localhost:" + server.getPort() + path).openConnection());
+    }
+
+    private static Response read(HttpURLConnection connection) throws Exception {
+        int status = connection.getResponseCode();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            byte[] buffer = new byte[8192];
+            for (int read; (read = in.read(buffer)) > 0; ) {
+                body.write(buffer, 0, read);
+            }
+        }
+        return new Response(status, new String(body.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private static class Response {
+        final int status;
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.cs.comp7502;
+
+import com.cs.comp7502.classifier.CascadedClassifier;
+import com.cs.comp7502.utils.ImagePyramid;
+
+/**
+ * Time of the scale aware detection with scaled features and with an image pyramid on a random 640x480 frame, to
+ * choose between the two modes.
+ *
+ * Timings depend on the machine, so this is a program run on demand rather than a unit test:
+ * <pre>
+ * java com.cs.comp7502.DetectorBenchmark [rounds] [scale factor]
+ * </pre>
+ */
+public class DetectorBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        double scaleFactor = args.length > 1 ? Double.parseDouble(args[1]) : 1.25;
+        CascadedClassifier cascadedClassifier = DetectorTest.loadDefaultCascadedClassifier();
+        int[][] input = DetectorTest.buildRandomImage(480, 640);
+        Detector detector = new Detector();
+        ImagePyramid pyramid = new ImagePyramid(scaleFactor);
+
+        // the first round only warms up the JIT
+        for (int round = 0; round <= rounds; round++) {
+            long time = System.nanoTime();
+            detector.detectFaces(input, cascadedClassifier, scaleFactor);
+            long scaledTime = System.nanoTime() - time;
+
+            time = System.nanoTime();
+            detector.detectFaces(input, cascadedClassifier, pyramid);
+            long pyramidTime = System.nanoTime() - time;
+
+            if (round > 0) {
+                System.out.println(String.format("round %d, 640x480, scale factor %.2f, scaled features: %.1fms, pyramid: %.1fms",
+                        round, scaleFactor, scaledTime / 1e6, pyramidTime / 1e6));
+            }
+        }
+    }
+}
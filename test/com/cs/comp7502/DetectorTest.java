@@ -1,8 +1,28 @@
 package com.cs.comp7502;
 
+import com.cs.comp7502.classifier.CascadedClassifier;
+import com.cs.comp7502.classifier.Feature;
+import com.cs.comp7502.classifier.Stage;
 import com.cs.comp7502.utils.ColourUtils;
+import com.cs.comp7502.utils.ImagePyramid;
+import com.cs.comp7502.utils.ImageUtils;
+import com.cs.comp7502.utils.IntegralImage;
+import org.json.JSONObject;
 import org.junit.Test;
 
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
 import static org.junit.Assert.*;
 
 public class DetectorTest {
@@ -44,4 +64,481 @@ public class DetectorTest {
         assertArrayEquals(expectedI2, image2);
     }
 
+    @Test
+    public void detectFaces_whenCascadedClassifier() throws Exception {
+        // prepare
+        CascadedClassifier cascadedClassifier = loadDefaultCascadedClassifier();
+        int[][] input = buildTestImage(5, 4);
+
+        // sliding window copies evaluated one by one
+        List<Rectangle> expected = new ArrayList<>();
+        for (int winSize = 24; winSize <= input[0].length && winSize <= input.length; winSize *= 2) {
+            for (int x = 0; x <= input.length - winSize; x += winSize / 4) {
+                for (int y = 0; y <= input[0].length - winSize; y += winSize / 4) {
+                    int[][] slidingWindow = new int[winSize][winSize];
+                    for (int i = 0; i < winSize; i++) {
+                        slidingWindow[i] = Arrays.copyOfRange(input[x + i], y, y + winSize);
+                    }
+                    if (cascadedClassifier.isFace(slidingWindow)) expected.add(new Rectangle(y, x, winSize, winSize));
+                }
+            }
+        }
+
+        // execute
+        List<Rectangle> actual = new Detector().detectFaces(input, cascadedClassifier);
+
+        // verify
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void detectFaces_whenScaleFactor() throws Exception {
+        // prepare
+        CascadedClassifier cascadedClassifier = loadDefaultCascadedClassifier();
+        int[][] input = buildTestImage(5, 4);
+
+        // the same image at twice the size, a 48x48 window on it holds exactly what a 24x24 window holds on the input
+        int[][] doubled = new int[input.length * 2][input[0].length * 2];
+        for (int x = 0; x < doubled.length; x++) {
+            for (int y = 0; y < doubled[0].length; y++) {
+                doubled[x][y] = input[x / 2][y / 2];
+            }
+        }
+
+        // execute
+        List<Rectangle> small = new Detector().detectFaces(input, cascadedClassifier, 2);
+        List<Rectangle> large = new Detector().detectFaces(doubled, cascadedClassifier, 2);
+
+        // verify
+        List<Rectangle> expected = new ArrayList<>();
+        for (Rectangle r : small) {
+            if (r.width == 24) expected.add(new Rectangle(r.x * 2, r.y * 2, 48, 48));
+        }
+        List<Rectangle> actual = new ArrayList<>();
+        for (Rectangle r : large) {
+            if (r.width == 48) actual.add(r);
+        }
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void detectFaces_whenParallel() throws Exception {
+        // prepare
+        CascadedClassifier cascadedClassifier = loadDefaultCascadedClassifier();
+        int[][] input = buildTestImage(10, 8);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        Detector parallel = new Detector(3);
+
+        // execute
+        List<Rectangle> expected = new Detector().detectFaces(input, cascadedClassifier);
+        List<Rectangle> expectedScaled = new Detector().detectFaces(input, cascadedClassifier, 1.25);
+        List<Rectangle> actual = new Detector(executor).detectFaces(input, cascadedClassifier);
+        List<Rectangle> actualScaled = parallel.detectFaces(input, cascadedClassifier, 1.25);
+        executor.shutdown();
+        parallel.close();
+
+        // verify
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, actual);
+        assertEquals(expectedScaled, actualScaled);
+    }
+
+    @Test
+    public void close() throws Exception {
+        // prepare
+        CascadedClassifier cascadedClassifier = loadDefaultCascadedClassifier();
+        int[][] input = buildTestImage(2, 2);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Detector shared = new Detector(executor);
+        Detector parallel = new Detector(3);
+        parallel.detectFaces(input, cascadedClassifier, 1.25);
+
+        // execute
+        shared.close();
+        parallel.close();
+
+        // verify
+        // the executor of the caller keeps running, the pool of the detector is shut down
+        assertFalse(executor.isShutdown());
+        assertFalse(shared.detectFaces(input, cascadedClassifier, 1.25).isEmpty());
+        executor.shutdown();
+        try {
+            parallel.detectFaces(input, cascadedClassifier, 1.25);
+            fail("a closed detector must not scan on its pool");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void detectFaces_whenRegions() throws Exception {
+        // prepare
+        CascadedClassifier cascadedClassifier = loadDefaultCascadedClassifier();
+        int[][] input = buildTestImage(10, 8);
+        List<Rectangle> regions = Arrays.asList(new Rectangle(30, 17, 50, 40), new Rectangle(150, 100, 60, 70));
+        List<Rectangle> grown = Arrays.asList(new Rectangle(25, 12, 60, 50), new Rectangle(145, 95, 70, 80));
+        Detector parallel = new Detector(3);
+
+        // execute
+        List<Rectangle> full = new Detector().detectFaces(input, cascadedClassifier);
+        List<Rectangle> fullScaled = new Detector().detectFaces(input, cascadedClassifier, 1.25);
+        List<Rectangle> actual = new Detector().detectFaces(input, cascadedClassifier, regions, 5);
+        List<Rectangle> actualScaled = parallel.detectFaces(input, cascadedClassifier, 1.25, regions, 5);
+        List<Rectangle> none = new Detector().detectFaces(input, cascadedClassifier, new ArrayList<Rectangle>(), 5);
+        parallel.close();
+
+        // verify
+        List<Rectangle> expected = insideAny(full, grown);
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, actual);
+        assertEquals(insideAny(fullScaled, grown), actualScaled);
+        assertTrue(none.isEmpty());
+    }
+
+    @Test
+    public void detectFaces_whenIntegralImage() throws Exception {
+        // prepare
+        CascadedClassifier cascadedClassifier = loadDefaultCascadedClassifier();
+        int[][] input = buildTestImage(10, 8);
+        BufferedImage frame = new BufferedImage(input[0].length, input.length, BufferedImage.TYPE_3BYTE_BGR);
+        for (int x = 0; x < input.length; x++) {
+            for (int y = 0; y < input[0].length; y++) {
+                int g = input[x][y];
+                frame.setRGB(y, x, (g << 16) | (g << 8) | g);
+            }
+        }
+        Detector detector = new Detector();
+        detector.setMinStdDev(10);
+
+        // execute
+        List<Rectangle> expected = detector.detectFaces(input, cascadedClassifier);
+        IntegralImage integralI = ImageUtils.buildIntegralImage(frame, null, detector.needsWindowStats());
+        List<Rectangle> actual = detector.detectFaces(integralI, cascadedClassifier);
+        List<Rectangle> actualScaled = detector.detectFaces(integralI, cascadedClassifier, new DetectionParams());
+
+        // verify
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, actual);
+        assertEquals(detector.detectFaces(input, cascadedClassifier, new DetectionParams()), actualScaled);
+    }
+
+    @Test
+    public void detectFaces_whenDetectionParams() throws Exception {
+        // prepare
+        CascadedClassifier cascadedClassifier = loadDefaultCascadedClassifier();
+        int[][] input = buildTestImage(10, 8);
+        DetectionParams params = new DetectionParams();
+        params.setMinFaceSize(28);
+        params.setMaxFaceSize(40);
+        DetectionParams capped = new DetectionParams();
+        capped.setMaxDetections(5);
+        Detector parallel = new Detector(3);
+
+        // execute
+        List<Rectangle> full = new Detector().detectFaces(input, cascadedClassifier, 1.25);
+        List<Rectangle> bounded = new Detector().detectFaces(input, cascadedClassifier, params);
+        List<Rectangle> boundedParallel = parallel.detectFaces(input, cascadedClassifier, params);
+        List<Rectangle> cappedSequential = new Detector().detectFaces(input, cascadedClassifier, capped);
+        List<Rectangle> cappedParallel = parallel.detectFaces(input, cascadedClassifier, capped);
+        parallel.close();
+
+        // verify
+        List<Rectangle> expected = new ArrayList<>();
+        for (Rectangle rectangle : full) {
+            if (rectangle.width >= 28 && rectangle.width <= 40) expected.add(rectangle);
+        }
+        assertFalse(expected.isEmpty());
+        assertTrue(expected.size() < full.size());
+        assertEquals(expected, bounded);
+        assertEquals(expected, boundedParallel);
+        assertEquals(full.subList(0, 5), cappedSequential);
+        assertEquals(full.subList(0, 5), cappedParallel);
+    }
+
+    @Test
+    public void detectFaces_whenDetectionContext() throws Exception {
+        // prepare
+        CascadedClassifier cascadedClassifier = loadDefaultCascadedClassifier();
+        int[][] input = buildTestImage(10, 8);
+        DetectionParams params = new DetectionParams();
+        Detector detector = new Detector();
+        DetectionContext context = new DetectionContext();
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < 50; i++) {
+            detector.detectFaces(input, cascadedClassifier, params, context);
+        }
+
+        // execute
+        // best of a few rounds, the JVM itself allocates now and then on this thread
+        DetectionBuffer detections = null;
+        long allocated = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long overhead = threadBean.getThreadAllocatedBytes(threadId);
+            overhead = threadBean.getThreadAllocatedBytes(threadId) - overhead;
+            long start = threadBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < 20; i++) {
+                detections = detector.detectFaces(input, cascadedClassifier, params, context);
+            }
+            allocated = Math.min(allocated, threadBean.getThreadAllocatedBytes(threadId) - start - overhead);
+        }
+        List<Rectangle> expected = new Detector().detectFaces(input, cascadedClassifier, params);
+
+        // verify
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, detections.toRectangles());
+        assertEquals(0, allocated);
+    }
+
+    @Test
+    public void detectFaces_whenListener() throws Exception {
+        // prepare
+        CascadedClassifier cascadedClassifier = loadDefaultCascadedClassifier();
+        int[][] input = buildTestImage(10, 8);
+        DetectionParams params = new DetectionParams();
+        final List<Rectangle> streamed = new ArrayList<>();
+        final List<Double> scales = new ArrayList<>();
+        final List<Double> scores = new ArrayList<>();
+        final List<Rectangle> streamedParallel = java.util.Collections.synchronizedList(new ArrayList<Rectangle>());
+        final List<Rectangle> first = new ArrayList<>();
+        Detector parallel = new Detector(3);
+
+        // execute
+        List<Rectangle> expected = new Detector().detectFaces(input, cascadedClassifier, params);
+        List<Rectangle> result = new Detector().detectFaces(input, cascadedClassifier, params, (window, scale, score) -> {
+            streamed.add(window);
+            scales.add(scale);
+            scores.add(score);
+            return true;
+        });
+        List<Rectangle> resultParallel = parallel.detectFaces(input, cascadedClassifier, params, (window, scale, score) -> {
+            streamedParallel.add(window);
+            return true;
+        });
+        List<Rectangle> resultFirst = new Detector().detectFaces(input, cascadedClassifier, params, (window, scale, score) -> {
+            first.add(window);
+            return false;
+        });
+        parallel.close();
+
+        // verify
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, result);
+        assertEquals(expected, streamed);
+        for (int i = 0; i < streamed.size(); i++) {
+            assertEquals(streamed.get(i).width / 24.0, scales.get(i), 1e-9);
+            assertTrue(scores.get(i) >= 0);
+        }
+        assertEquals(expected, resultParallel);
+        assertEquals(expected.size(), streamedParallel.size());
+        assertTrue(streamedParallel.containsAll(expected));
+        assertEquals(expected.subList(0, 1), first);
+        assertEquals(first, resultFirst);
+    }
+
+    @Test
+    public void detectPresence() throws Exception {
+        // prepare
+        CascadedClassifier cascadedClassifier = loadDefaultCascadedClassifier();
+        int[][] input = buildTestImage(10, 8);
+        int[][] blank = new int[input.length][input[0].length];
+        DetectionParams params = new DetectionParams();
+        Detector detector = new Detector();
+        List<Rectangle> faces = detector.detectFaces(input, cascadedClassifier, params);
+        long fullWindows = detector.getWindowsEvaluated();
+        Detector parallel = new Detector(3);
+
+        // execute
+        PresenceResult present = new Detector().detectPresence(input, cascadedClassifier, params);
+        PresenceResult presentParallel = parallel.detectPresence(input, cascadedClassifier, params);
+        PresenceResult absent = new Detector().detectPresence(blank, cascadedClassifier, params);
+        PresenceResult absentParallel = parallel.detectPresence(blank, cascadedClassifier, params);
+        parallel.close();
+
+        // verify
+        assertTrue(present.isFacePresent());
+        assertTrue(faces.contains(present.getFace()));
+        assertTrue(present.getWindowsEvaluated() < fullWindows / 10);
+        assertTrue(presentParallel.isFacePresent());
+        assertTrue(faces.contains(presentParallel.getFace()));
+        assertTrue(presentParallel.getWindowsEvaluated() < fullWindows);
+        assertFalse(absent.isFacePresent());
+        assertNull(absent.getFace());
+        assertEquals(fullWindows, absent.getWindowsEvaluated());
+        assertFalse(absentParallel.isFacePresent());
+        assertEquals(fullWindows, absentParallel.getWindowsEvaluated());
+    }
+
+    @Test
+    public void detectFaces_whenMinStdDev() throws Exception {
+        // prepare
+        CascadedClassifier cascadedClassifier = loadDefaultCascadedClassifier();
+        int[][] input = buildTestImage(5, 4);
+        // flat left half
+        for (int[] row : input) {
+            Arrays.fill(row, 0, 60, 128);
+        }
+        Detector detector = new Detector();
+        Detector flatDetector = new Detector();
+        flatDetector.setMinStdDev(10);
+
+        // execute
+        List<Rectangle> all = detector.detectFaces(input, cascadedClassifier);
+        List<Rectangle> actual = flatDetector.detectFaces(input, cascadedClassifier);
+
+        // verify
+        for (Rectangle r : actual) {
+            assertTrue(all.contains(r));
+            assertTrue(r.x + r.width > 60);
+        }
+        for (Rectangle r : all) {
+            if (r.x >= 60 && r.width == 24) assertTrue(actual.contains(r));
+        }
+    }
+
+    @Test
+    public void detectFaces_whenVarianceNormalisation() throws Exception {
+        // prepare
+        // move the thresholds of the default cascade to a window of mean 100 and standard deviation 50
+        CascadedClassifier cascadedClassifier = loadDefaultCascadedClassifier();
+        for (Stage stage : cascadedClassifier.getStages()) {
+            for (Feature feature : stage.getClassifierList()) {
+                int type = feature.getType();
+                int netArea = type == Feature.FEATURE_TYPE_2 || type == Feature.FEATURE_TYPE_4 ? feature.getWidth() * feature.getHeight() : 0;
+                feature.setThreshold((feature.getThreshold() - 100 * netArea) / 50);
+            }
+        }
+        int[][] input = buildTestImage(5, 4);
+        int[][] brighter = new int[input.length][input[0].length];
+        for (int x = 0; x < input.length; x++) {
+            for (int y = 0; y < input[0].length; y++) {
+                brighter[x][y] = input[x][y] * 2 + 10;
+            }
+        }
+        Detector detector = new Detector();
+        detector.setVarianceNormalisation(true);
+
+        // execute
+        List<Rectangle> expected = detector.detectFaces(input, cascadedClassifier);
+        List<Rectangle> actual = detector.detectFaces(brighter, cascadedClassifier);
+
+        // verify
+        // normalised windows do not depend on brightness or contrast
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void detectFaces_whenPyramid() throws Exception {
+        // prepare
+        CascadedClassifier cascadedClassifier = loadDefaultCascadedClassifier();
+        int[][] input = buildTestImage(5, 4);
+        int[][] doubled = new int[input.length * 2][input[0].length * 2];
+        for (int x = 0; x < doubled.length; x++) {
+            for (int y = 0; y < doubled[0].length; y++) {
+                doubled[x][y] = input[x / 2][y / 2];
+            }
+        }
+        ImagePyramid pyramid = new ImagePyramid(2);
+        Detector detector = new Detector();
+
+        // execute
+        List<Rectangle> small = detector.detectFaces(input, cascadedClassifier);
+        // the second level of the doubled image is the input itself
+        detector.detectFaces(input, cascadedClassifier, pyramid);
+        List<Rectangle> large = detector.detectFaces(doubled, cascadedClassifier, pyramid);
+
+        // verify
+        List<Rectangle> expected = new ArrayList<>();
+        for (Rectangle r : small) {
+            if (r.width == 24) expected.add(new Rectangle(r.x * 2, r.y * 2, 48, 48));
+        }
+        List<Rectangle> actual = new ArrayList<>();
+        for (Rectangle r : large) {
+            if (r.width == 48) actual.add(r);
+        }
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void detectFaces_whenPyramidReused() throws Exception {
+        // prepare
+        CascadedClassifier cascadedClassifier = loadDefaultCascadedClassifier();
+        int[][] input = buildRandomImage(480, 640);
+        Detector detector = new Detector();
+        ImagePyramid pyramid = new ImagePyramid(1.25);
+        List<Rectangle> first = detector.detectFaces(input, cascadedClassifier, pyramid);
+        IntegralImage[] levels = new IntegralImage[pyramid.getLevelCount()];
+        for (int level = 0; level < levels.length; level++) {
+            levels[level] = pyramid.getIntegralImage(level);
+        }
+
+        // execute
+        List<Rectangle> second = detector.detectFaces(input, cascadedClassifier, pyramid);
+
+        // verify
+        // 480 / 1.25^13 is still 26 pixels, 480 / 1.25^14 is below the 24 pixel window
+        assertEquals(14, pyramid.getLevelCount());
+        assertEquals(first, second);
+        for (int level = 0; level < levels.length; level++) {
+            assertTrue(levels[level] == pyramid.getIntegralImage(level));
+        }
+    }
+
+    /**
+     * Grayscale noise, the same for every call
+     */
+    static int[][] buildRandomImage(int height, int width) {
+        Random random = new Random(7502);
+        int[][] image = new int[height][width];
+        for (int[] row : image) {
+            for (int y = 0; y < row.length; y++) row[y] = random.nextInt(256);
+        }
+        return image;
+    }
+
+    private static List<Rectangle> insideAny(List<Rectangle> rectangles, List<Rectangle> regions) {
+        List<Rectangle> inside = new ArrayList<>();
+        for (Rectangle rectangle : rectangles) {
+            for (Rectangle region : regions) {
+                if (region.contains(rectangle)) {
+                    inside.add(rectangle);
+                    break;
+                }
+            }
+        }
+        return inside;
+    }
+
+    static CascadedClassifier loadDefaultCascadedClassifier() throws Exception {
+        File file = new File("cascadedClassifiers/cascade_classifier_default.json");
+        CascadedClassifier cascadedClassifier = new CascadedClassifier();
+        cascadedClassifier.decode(new JSONObject(new String(Files.readAllBytes(file.toPath()))));
+        return cascadedClassifier;
+    }
+
+    /**
+     * Tiles the 24x24 testing examples, faces and non faces alternating, into one grayscale image
+     */
+    static int[][] buildTestImage(int columns, int rows) throws Exception {
+        File[] faces = new File("res/testingExamples/faces").listFiles();
+        File[] nonFaces = new File("res/testingExamples/nonFaces").listFiles();
+        Arrays.sort(faces);
+        Arrays.sort(nonFaces);
+
+        int[][] image = new int[rows * 24][columns * 24];
+        for (int i = 0; i < rows * columns; i++) {
+            File file = i % 2 == 0 ? faces[i] : nonFaces[i];
+            int[][] tile = ImageUtils.buildImageArray(ImageIO.read(file), true);
+            for (int x = 0; x < 24; x++) {
+                System.arraycopy(tile[x], 0, image[(i / columns) * 24 + x], (i % columns) * 24, 24);
+            }
+        }
+        return image;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,56 @@
+package com.cs.comp7502;
+
+import com.cs.comp7502.classifier.CascadedClassifier;
+import com.cs.comp7502.utils.IntegralImage;
+import com.cs.comp7502.utils.MotionMask;
+import org.junit.Test;
+
+import java.awt.*;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MotionDetectorTest {
+
+    @Test
+    public void detectFaces() throws Exception {
+        // prepare
+        CascadedClassifier cascadedClassifier = DetectorTest.loadDefaultCascadedClassifier();
+        int[][] background = DetectorTest.buildTestImage(10, 8);
+        MotionDetector motionDetector = new MotionDetector(new Detector(), cascadedClassifier, new MotionMask(16));
+
+        // execute
+        // verify
+        for (int f = 0; f < 6; f++) {
+            int[][] frame = buildFrame(background, 20 + 8 * f, 30 + 12 * f);
+            List<Rectangle> expected = new Detector().detectFaces(frame, cascadedClassifier, new DetectionParams());
+            List<Rectangle> actual = motionDetector.detectFaces(new IntegralImage(frame));
+
+            assertFalse(expected.isEmpty());
+            assertEquals(expected.size(), actual.size());
+            assertEquals(new HashSet<>(expected), new HashSet<>(actual));
+            if (f == 0) {
+                assertEquals(0, motionDetector.getSkippedRatio(), 0);
+            } else {
+                assertTrue(motionDetector.getSkippedRatio() > 0.5);
+            }
+        }
+    }
+
+    /**
+     * background with a bright square moving over it
+     */
+    private static int[][] buildFrame(int[][] background, int x, int y) {
+        int[][] frame = new int[background.length][];
+        for (int i = 0; i < background.length; i++) {
+            frame[i] = background[i].clone();
+        }
+        for (int i = x; i < x + 30; i++) {
+            for (int j = y; j < y + 30; j++) {
+                frame[i][j] = 250;
+            }
+        }
+        return frame;
+    }
+}
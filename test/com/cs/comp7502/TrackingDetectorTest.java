@@ -0,0 +1,97 @@
+package com.cs.comp7502;
+
+import com.cs.comp7502.classifier.CascadedClassifier;
+import org.junit.Test;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TrackingDetectorTest {
+
+    @Test
+    public void detectFaces() throws Exception {
+        // prepare
+        CascadedClassifier cascadedClassifier = DetectorTest.loadDefaultCascadedClassifier();
+        int[][] tile = DetectorTest.buildTestImage(4, 2);
+        TrackingDetector trackingDetector = new TrackingDetector(new Detector(), cascadedClassifier);
+        trackingDetector.setFullScanInterval(5);
+
+        // execute
+        // verify
+        for (int f = 0; f < 8; f++) {
+            int[][] frame = buildFrame(tile, 100 + 2 * f, 200 + 3 * f);
+            List<Rectangle> expected = new Detector().detectFaces(frame, cascadedClassifier, new DetectionParams());
+            List<Rectangle> actual = trackingDetector.detectFaces(frame);
+
+            assertEquals(f % 5 == 0, trackingDetector.isFullScan());
+            assertFalse(actual.isEmpty());
+            assertTrue(expected.containsAll(actual));
+            if (trackingDetector.isFullScan()) assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void detectFaces_whenTrackingLost() throws Exception {
+        // prepare
+        CascadedClassifier cascadedClassifier = DetectorTest.loadDefaultCascadedClassifier();
+        int[][] tile = DetectorTest.buildTestImage(4, 2);
+        TrackingDetector trackingDetector = new TrackingDetector(new Detector(), cascadedClassifier);
+
+        // execute
+        trackingDetector.detectFaces(buildFrame(tile, 100, 200));
+        List<Rectangle> lost = trackingDetector.detectFaces(buildFrame(tile, 0, 0, false));
+        trackingDetector.detectFaces(buildFrame(tile, 100, 200));
+
+        // verify
+        assertTrue(lost.isEmpty());
+        assertTrue(trackingDetector.isFullScan());
+        assertFalse(trackingDetector.getTrackedFaces().isEmpty());
+    }
+
+    @Test
+    public void detectFaces_whenFewerWindows() throws Exception {
+        // prepare
+        CascadedClassifier cascadedClassifier = DetectorTest.loadDefaultCascadedClassifier();
+        int[][] tile = DetectorTest.buildTestImage(4, 2);
+        Detector detector = new Detector();
+        TrackingDetector trackingDetector = new TrackingDetector(detector, cascadedClassifier);
+        int frames = 30;
+
+        // execute
+        for (int f = 0; f < frames; f++) {
+            detector.detectFaces(buildFrame(tile, 100 + f, 200 + f), cascadedClassifier, new DetectionParams());
+        }
+        long fullWindows = detector.getWindowsEvaluated();
+        detector.resetWindowsEvaluated();
+        for (int f = 0; f < frames; f++) {
+            trackingDetector.detectFaces(buildFrame(tile, 100 + f, 200 + f));
+        }
+        long trackingWindows = detector.getWindowsEvaluated();
+
+        // verify
+        assertFalse(trackingDetector.getTrackedFaces().isEmpty());
+        // the work, and so the frame rate, of tracking is a fraction of the one of full scans
+        assertTrue(trackingWindows + " of " + fullWindows + " windows", 3 * trackingWindows < fullWindows);
+    }
+
+    private static int[][] buildFrame(int[][] tile, int x, int y) {
+        return buildFrame(tile, x, y, true);
+    }
+
+    /**
+     * 480x300 gray frame with the tile at row x and column y
+     */
+    private static int[][] buildFrame(int[][] tile, int x, int y, boolean withTile) {
+        int[][] frame = new int[300][480];
+        for (int[] row : frame) Arrays.fill(row, 128);
+        if (withTile) {
+            for (int i = 0; i < tile.length; i++) {
+                System.arraycopy(tile[i], 0, frame[x + i], y, tile[0].length);
+            }
+        }
+        return frame;
+    }
+}
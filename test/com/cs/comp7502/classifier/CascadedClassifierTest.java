@@ -9,6 +9,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import static org.junit.Assert.*;
+
 public class CascadedClassifierTest {
     @Test
     public void train() throws Exception {
@@ -37,4 +39,31 @@ public class CascadedClassifierTest {
         }
     }
 
-}
\ No newline at end of file
+    @Test
+    public void resume() throws Exception {
+        // prepare
+        List<Feature> featureList = Feature.generateAllFeatures();
+        List<File> faces = new ArrayList<>(Arrays.asList(new File("res/trainingSet/faces").listFiles()));
+        List<File> nonFaces = new ArrayList<>(Arrays.asList(new File("res/trainingSet/nonFaces").listFiles()));
+        File checkpointFile = File.createTempFile("checkpoint", ".json");
+        checkpointFile.deleteOnExit();
+        CascadedClassifier uninterrupted = CascadedClassifier.train(featureList, 0.95, 0.95, 0.05, faces, nonFaces, null, null);
+        // a first run stopped after its first stages, as if killed, then given the final target
+        CascadedClassifier interrupted = CascadedClassifier.train(featureList, 0.95, 0.95, 0.5, faces, nonFaces, null, checkpointFile);
+        TrainingCheckpoint checkpoint = TrainingCheckpoint.load(checkpointFile);
+        checkpoint.setTargetFPR(0.05);
+        checkpoint.save(checkpointFile);
+
+        // execute
+        CascadedClassifier resumed = CascadedClassifier.resume(featureList, faces, nonFaces, null, checkpointFile);
+
+        // verify
+        assertTrue(interrupted.getStages().size() < uninterrupted.getStages().size());
+        assertEquals(uninterrupted.encode().toString(), resumed.encode().toString());
+        TrainingCheckpoint last = TrainingCheckpoint.load(checkpointFile);
+        assertEquals(uninterrupted.getStages().size() + 1, last.getLayer());
+        assertTrue(last.getFPR() <= 0.05);
+        assertEquals(faces.size(), last.getFaceCount());
+        assertEquals(nonFaces.size(), last.getNonFaceCount());
+    }
+}
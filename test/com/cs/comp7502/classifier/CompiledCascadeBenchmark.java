@@ -0,0 +1,51 @@
+package com.cs.comp7502.classifier;
+
+import com.cs.comp7502.utils.IntegralImage;
+
+/**
+ * Windows per second of {@link CascadedClassifier} and of its {@link CompiledCascade} on a random 480x300 frame.
+ *
+ * Timings depend on the machine, so this is a program run on demand rather than a unit test:
+ * <pre>
+ * java com.cs.comp7502.classifier.CompiledCascadeBenchmark [rounds]
+ * </pre>
+ */
+public class CompiledCascadeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        CascadedClassifier cascadedClassifier = CompiledCascadeTest.loadDefaultCascadedClassifier();
+        CompiledCascade compiled = CompiledCascade.compile(cascadedClassifier);
+        int h = 300;
+        int w = 480;
+        IntegralImage integralI = CompiledCascadeTest.buildRandomIntegralImage(h, w);
+        long windows = (long) (h - 23) * (w - 23);
+
+        // the first round only warms up the JIT
+        for (int round = 0; round <= rounds; round++) {
+            long time = System.nanoTime();
+            int faces = 0;
+            for (int x = 0; x <= h - 24; x++) {
+                for (int y = 0; y <= w - 24; y++) {
+                    if (cascadedClassifier.isFace(integralI, x, y)) faces++;
+                }
+            }
+            double before = windows / ((System.nanoTime() - time) / 1e9);
+
+            time = System.nanoTime();
+            int compiledFaces = 0;
+            for (int x = 0; x <= h - 24; x++) {
+                for (int y = 0; y <= w - 24; y++) {
+                    if (compiled.isFace(integralI, x, y)) compiledFaces++;
+                }
+            }
+            double after = windows / ((System.nanoTime() - time) / 1e9);
+
+            if (faces != compiledFaces) throw new IllegalStateException(faces + " faces, compiled " + compiledFaces);
+            if (round > 0) {
+                System.out.println(String.format("round %d, CascadedClassifier: %.0f windows/s, CompiledCascade: %.0f windows/s, x%.2f",
+                        round, before, after, after / before));
+            }
+        }
+    }
+}
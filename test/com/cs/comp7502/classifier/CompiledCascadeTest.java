@@ -0,0 +1,137 @@
+package com.cs.comp7502.classifier;
+
+import com.cs.comp7502.utils.ImageUtils;
+import com.cs.comp7502.utils.IntegralImage;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CompiledCascadeTest {
+
+    @Test
+    public void compile() throws Exception {
+        // prepare
+        CascadedClassifier cascadedClassifier = loadDefaultCascadedClassifier();
+        int featureCount = 0;
+        for (Stage stage : cascadedClassifier.getStages()) {
+            featureCount += stage.getClassifierList().size();
+        }
+
+        // execute
+        CompiledCascade compiled = CompiledCascade.compile(cascadedClassifier);
+
+        // verify
+        assertEquals(cascadedClassifier.getStages().size(), compiled.getStageCount());
+        assertEquals(featureCount, compiled.getFeatureCount());
+    }
+
+    @Test
+    public void isFace_whenTestingExamples() throws Exception {
+        // prepare
+        CascadedClassifier cascadedClassifier = loadDefaultCascadedClassifier();
+        CompiledCascade compiled = CompiledCascade.compile(cascadedClassifier);
+
+        File[] faces = new File("res/testingExamples/faces").listFiles();
+        File[] nonFaces = new File("res/testingExamples/nonFaces").listFiles();
+
+        // execute
+        // verify
+        int faceCount = 0;
+        for (File[] files : new File[][]{faces, nonFaces}) {
+            for (File file : files) {
+                int[][] image = ImageUtils.buildImageArray(ImageIO.read(file), true);
+                IntegralImage integralI = new IntegralImage(image);
+
+                boolean expected = cascadedClassifier.isFace(image);
+                assertEquals(file.getName(), expected, compiled.isFace(integralI, 0, 0));
+                if (expected) faceCount++;
+            }
+        }
+        assertTrue(faceCount > 0);
+    }
+
+    @Test
+    public void isFace_whenOffset() throws Exception {
+        // prepare
+        CascadedClassifier cascadedClassifier = loadDefaultCascadedClassifier();
+        CompiledCascade compiled = CompiledCascade.compile(cascadedClassifier);
+        IntegralImage integralI = buildRandomIntegralImage(120, 160);
+
+        // execute
+        // verify
+        for (int x = 0; x <= 120 - 24; x += 3) {
+            for (int y = 0; y <= 160 - 24; y += 3) {
+                assertEquals(cascadedClassifier.isFace(integralI, x, y), compiled.isFace(integralI, x, y));
+            }
+        }
+    }
+
+    @Test
+    public void isFace_whenRejectionThresholds() throws Exception {
+        // prepare
+        CascadedClassifier cascadedClassifier = loadDefaultCascadedClassifier();
+        List<File> faces = Arrays.asList(new File("res/trainingSet/faces").listFiles());
+        cascadedClassifier.calibrateRejectionThresholds(faces);
+        CompiledCascade compiled = CompiledCascade.compile(cascadedClassifier);
+        IntegralImage integralI = buildRandomIntegralImage(120, 160);
+
+        // execute
+        // verify
+        for (Stage stage : cascadedClassifier.getStages()) {
+            assertNotNull(stage.getRejectionThresholds());
+        }
+        for (int x = 0; x <= 120 - 24; x += 2) {
+            for (int y = 0; y <= 160 - 24; y += 2) {
+                assertEquals(cascadedClassifier.isFace(integralI, x, y), compiled.isFace(integralI, x, y));
+            }
+        }
+    }
+
+    @Test
+    public void isFace_whenRandomFrame() throws Exception {
+        // prepare
+        CascadedClassifier cascadedClassifier = loadDefaultCascadedClassifier();
+        CompiledCascade compiled = CompiledCascade.compile(cascadedClassifier);
+        int h = 300;
+        int w = 480;
+        IntegralImage integralI = buildRandomIntegralImage(h, w);
+
+        // execute
+        int faces = 0;
+        for (int x = 0; x <= h - 24; x++) {
+            for (int y = 0; y <= w - 24; y++) {
+                boolean expected = cascadedClassifier.isFace(integralI, x, y);
+                // verify
+                assertEquals(expected, compiled.isFace(integralI, x, y));
+                if (expected) faces++;
+            }
+        }
+        assertTrue(faces > 0);
+    }
+
+    static IntegralImage buildRandomIntegralImage(int h, int w) {
+        Random random = new Random(7502);
+        int[][] image = new int[h][w];
+        for (int x = 0; x < h; x++) {
+            for (int y = 0; y < w; y++) {
+                image[x][y] = random.nextInt(256);
+            }
+        }
+        return new IntegralImage(image);
+    }
+
+    static CascadedClassifier loadDefaultCascadedClassifier() throws Exception {
+        File file = new File("cascadedClassifiers/cascade_classifier_default.json");
+        CascadedClassifier cascadedClassifier = new CascadedClassifier();
+        cascadedClassifier.decode(new JSONObject(new String(Files.readAllBytes(file.toPath()))));
+        return cascadedClassifier;
+    }
+}
@@ -60,6 +60,32 @@ public class FeatureTest {
         assertEquals(0, feature5.getValue(integralI));
     }
 
+    @Test
+    public void scale() throws Exception {
+        // prepare
+        int[][] testI = new int[48][48];
+        for (int i = 0; i < 48; i++){
+            Arrays.fill(testI[i], 2);
+        }
+
+        int[][] integralI = new int[48][48];
+        ImageUtils.buildIntegralImage(testI, integralI, 48, 48);
+
+        Feature feature = new Feature(FEATURE_TYPE_2, 12, 6, 4, 2);
+        feature.setThreshold(10);
+        feature.setPolarity(-1);
+        feature.setWeight(0.5);
+
+        // execute
+        Feature scaled = feature.scale(2);
+
+        // verify
+        assertEquals(16 * 4, scaled.getValue(integralI));
+        assertEquals(40, scaled.getThreshold(), 0.001);
+        assertEquals(-1, scaled.getPolarity());
+        assertEquals(0.5, scaled.getWeight(), 0.001);
+    }
+
     @Test
     public void getValue_whenFile() throws Exception {
         // prepare
@@ -0,0 +1,138 @@
+package com.cs.comp7502.classifier;
+
+import com.cs.comp7502.utils.ImageUtils;
+import com.cs.comp7502.utils.IntegralImage;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StageTest {
+
+    @Test
+    public void calibrateRejectionThresholds() throws Exception {
+        // prepare
+        Stage stage = loadDefaultCascadedClassifier().getStages().get(5);
+        List<IntegralImage> faces = loadIntegralImages("res/trainingSet/faces");
+        List<IntegralImage> nonFaces = loadIntegralImages("res/trainingSet/nonFaces");
+
+        List<IntegralImage> passingFaces = new ArrayList<>();
+        for (IntegralImage face : faces) {
+            if (stage.isFace(face, 0, 0)) passingFaces.add(face);
+        }
+        int passingNonFaces = 0;
+        for (IntegralImage nonFace : nonFaces) {
+            if (stage.isFace(nonFace, 0, 0)) passingNonFaces++;
+        }
+
+        // execute
+        stage.calibrateRejectionThresholds(faces);
+
+        // verify
+        double[] thresholds = stage.getRejectionThresholds();
+        assertNotNull(thresholds);
+        assertEquals(stage.getClassifierList().size(), thresholds.length);
+        // the training faces that passed the stage are never rejected early
+        for (IntegralImage face : passingFaces) {
+            assertTrue(stage.isFace(face, 0, 0));
+        }
+        int calibratedNonFaces = 0;
+        for (IntegralImage nonFace : nonFaces) {
+            if (stage.isFace(nonFace, 0, 0)) calibratedNonFaces++;
+        }
+        assertTrue(calibratedNonFaces <= passingNonFaces);
+    }
+
+    @Test
+    public void encode_whenRejectionThresholds() throws Exception {
+        // prepare
+        Stage stage = new Stage();
+        ArrayList<Feature> features = new ArrayList<>();
+        features.add(new Feature(Feature.FEATURE_TYPE_1, 1, 2, 3, 4));
+        features.add(new Feature(Feature.FEATURE_TYPE_3, 4, 3, 2, 1));
+        stage.setClassifierList(features);
+        stage.setStageThreshold(0.75);
+        stage.setRejectionThresholds(new double[]{0.25, 0.5});
+
+        // execute
+        Stage decoded = new Stage();
+        decoded.decode(new JSONObject(stage.encode().toString()));
+
+        // verify
+        assertEquals(0.75, decoded.getStageThreshold(), 0.0001);
+        assertEquals(2, decoded.getClassifierList().size());
+        assertArrayEquals(new double[]{0.25, 0.5}, decoded.getRejectionThresholds(), 0.0001);
+    }
+
+    @Test
+    public void decode_whenRejectionThresholdsMismatch() throws Exception {
+        // prepare
+        Stage stage = new Stage();
+        ArrayList<Feature> features = new ArrayList<>();
+        features.add(new Feature(Feature.FEATURE_TYPE_1, 1, 2, 3, 4));
+        features.add(new Feature(Feature.FEATURE_TYPE_3, 4, 3, 2, 1));
+        stage.setClassifierList(features);
+        stage.setStageThreshold(0.75);
+        JSONObject json = stage.encode();
+        json.put("rejectionThresholds", new JSONArray(Arrays.asList(0.25)));
+        IntegralImage face = loadIntegralImages("res/trainingSet/faces").get(0);
+
+        // execute
+        Stage decoded = new Stage();
+        decoded.decode(json);
+
+        // verify
+        assertNull(decoded.getRejectionThresholds());
+        assertEquals(stage.isFace(face, 0, 0), decoded.isFace(face, 0, 0));
+        CascadedClassifier cascadedClassifier = new CascadedClassifier();
+        cascadedClassifier.getStages().add(decoded);
+        assertEquals(stage.isFace(face, 0, 0), CompiledCascade.compile(cascadedClassifier).isFace(face, 0, 0));
+        try {
+            decoded.setRejectionThresholds(new double[]{0.25});
+            fail("a trace shorter than the features must be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void isFace_whenFeatureAddedAfterCalibration() throws Exception {
+        // prepare
+        Stage stage = loadDefaultCascadedClassifier().getStages().get(5);
+        List<IntegralImage> faces = loadIntegralImages("res/trainingSet/faces");
+        stage.calibrateRejectionThresholds(faces);
+        assertNotNull(stage.getRejectionThresholds());
+
+        // execute
+        stage.getClassifierList().add(new Feature(Feature.FEATURE_TYPE_1, 1, 2, 3, 4));
+
+        // verify
+        assertNull(stage.getRejectionThresholds());
+        for (IntegralImage face : faces) {
+            stage.isFace(face, 0, 0);
+        }
+    }
+
+    static List<IntegralImage> loadIntegralImages(String folder) throws Exception {
+        List<IntegralImage> images = new ArrayList<>();
+        for (File file : new File(folder).listFiles()) {
+            images.add(new IntegralImage(ImageUtils.buildImageArray(ImageIO.read(file), true)));
+        }
+        return images;
+    }
+
+    static CascadedClassifier loadDefaultCascadedClassifier() throws Exception {
+        File file = new File("cascadedClassifiers/cascade_classifier_default.json");
+        CascadedClassifier cascadedClassifier = new CascadedClassifier();
+        cascadedClassifier.decode(new JSONObject(new String(Files.readAllBytes(file.toPath()))));
+        return cascadedClassifier;
+    }
+}
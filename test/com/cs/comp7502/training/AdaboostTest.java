@@ -8,6 +8,7 @@ import org.junit.Test;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static com.cs.comp7502.training.Adaboost.*;
@@ -27,22 +28,151 @@ public class AdaboostTest {
         File test1 = new File("res/testImages/testImage1.png");
         File test2 = new File("res/testImages/testImage2.png");
 
+        TrainingSet trainingSet = TrainingSet.load(Arrays.asList(test1), Arrays.asList(test2));
+
         List<TrainedImage> images = new ArrayList<>();
-        TrainedImage image1 = new TrainedImage(1, test1, 0.5);
-        TrainedImage image2 = new TrainedImage(-1, test2, 0.5);
+        TrainedImage image1 = new TrainedImage(1, 0, 0.5);
+        TrainedImage image2 = new TrainedImage(-1, 1, 0.5);
         images.add(image1);
         images.add(image2);
 
         // execute
-        BestStump bestStump = Adaboost.findBestStump(feature1, images, 0.5, 0.5);
+        BestStump bestStump = Adaboost.findBestStump(feature1, trainingSet, images, 0.5, 0.5);
 
         // verify
         Feature feature = bestStump.getFeature();
         assertEquals(0,feature.getError(), 0.01);
-        assertEquals(-1,feature.getPolarity(), 0.01);
+        // the face is -3060 and the non face 0, p * value < p * threshold holds for the face only
+        assertEquals(1,feature.getPolarity(), 0.01);
         assertEquals(-1530,feature.getThreshold(), 0.01);
     }
 
+    @Test
+    public void findBestStump_whenPresorted() throws Exception {
+        // prepare
+        TrainingSet trainingSet = TrainingSet.load(Arrays.asList(new File("res/trainingSet/faces").listFiles()),
+                Arrays.asList(new File("res/trainingSet/nonFaces").listFiles()));
+        FeatureValueTable table = new FeatureValueTable(trainingSet);
+        Feature sorted = new Feature(FEATURE_TYPE_1, 8, 4, 5, 3);
+        Feature presorted = new Feature(FEATURE_TYPE_1, 8, 4, 5, 3);
+        double[] weights = new double[trainingSet.size()];
+        List<TrainedImage> images = new ArrayList<>();
+        for (int sample = 0; sample < trainingSet.size(); sample++) {
+            weights[sample] = 1.0 / (2 * (sample < trainingSet.getFaceCount() ? trainingSet.getFaceCount() : trainingSet.getNonFaceCount()));
+            images.add(new TrainedImage(trainingSet.getLabel(sample), sample, weights[sample]));
+        }
+
+        // execute
+        Adaboost.findBestStump(sorted, trainingSet, images, 0.5, 0.5);
+        Adaboost.findBestStump(presorted, table.getColumn(presorted), table, weights, null, 0.5, 0.5);
+
+        // verify
+        assertEquals(sorted.getThreshold(), presorted.getThreshold(), 0);
+        assertEquals(sorted.getPolarity(), presorted.getPolarity());
+        assertEquals(sorted.getError(), presorted.getError(), 1e-12);
+        assertEquals(1, table.getColumnCount());
+    }
+
+    @Test
+    public void learn_whenActiveSamples() throws Exception {
+        // prepare
+        List<File> faces = Arrays.asList(new File("res/trainingSet/faces").listFiles());
+        List<File> nonFaces = Arrays.asList(new File("res/trainingSet/nonFaces").listFiles());
+        FeatureValueTable table = new FeatureValueTable(TrainingSet.load(faces, nonFaces));
+        boolean[] active = new boolean[faces.size() + nonFaces.size()];
+        Arrays.fill(active, 0, faces.size(), true);
+        List<File> someNonFaces = new ArrayList<>();
+        for (int i = 0; i < nonFaces.size(); i += 3) {
+            active[faces.size() + i] = true;
+            someNonFaces.add(nonFaces.get(i));
+        }
+        List<Feature> features = Feature.generateAllFeatures().subList(1000, 1020);
+        List<Feature> copies = Feature.generateAllFeatures().subList(1000, 1020);
+
+        // execute
+        Stage subset = Adaboost.learn(features, table, active);
+        Stage expected = Adaboost.learn(copies, faces, someNonFaces);
+
+        // verify
+        assertEquals(expected.getStageThreshold(), subset.getStageThreshold(), 1e-9);
+        for (int i = 0; i < features.size(); i++) {
+            assertEquals(expected.getClassifierList().get(i).getThreshold(), subset.getClassifierList().get(i).getThreshold(), 0);
+            assertEquals(expected.getClassifierList().get(i).getPolarity(), subset.getClassifierList().get(i).getPolarity());
+        }
+    }
+
+    @Test
+    public void learn_whenExhaustiveSearch() throws Exception {
+        // prepare
+        TrainingSet trainingSet = TrainingSet.load(Arrays.asList(new File("res/trainingSet/faces").listFiles()),
+                Arrays.asList(new File("res/trainingSet/nonFaces").listFiles()));
+        FeatureValueTable table = new FeatureValueTable(trainingSet);
+        List<Feature> candidates = Feature.generateAllFeatures().subList(20000, 23000);
+        double[] weights = new double[trainingSet.size()];
+        for (int sample = 0; sample < trainingSet.size(); sample++) {
+            weights[sample] = 1.0 / (2 * (sample < trainingSet.getFaceCount() ? trainingSet.getFaceCount() : trainingSet.getNonFaceCount()));
+        }
+        // first round searched one candidate after the other on copies
+        int bestIndex = -1;
+        double bestError = 2;
+        for (int i = 0; i < candidates.size(); i++) {
+            Feature candidate = candidates.get(i);
+            Feature copy = new Feature(candidate.getType(), candidate.getX(), candidate.getY(), candidate.getWidth(), candidate.getHeight());
+            Adaboost.findBestStump(copy, table.getColumn(candidate), table, weights, null, 0.5, 0.5);
+            if (copy.getError() < bestError) {
+                bestError = copy.getError();
+                bestIndex = i;
+            }
+        }
+
+        // execute
+        Stage stage = Adaboost.learn(candidates, 3, table, null);
+
+        // verify
+        assertEquals(3, stage.getClassifierList().size());
+        Feature first = stage.getClassifierList().get(0);
+        Feature expected = candidates.get(bestIndex);
+        assertEquals(bestError, first.getError(), 0);
+        assertEquals(expected.getX(), first.getX());
+        assertEquals(expected.getY(), first.getY());
+        assertEquals(expected.getWidth(), first.getWidth());
+        assertEquals(expected.getHeight(), first.getHeight());
+        assertFalse(expected == first);
+        // the stage boosted with the chosen features in the same order is the same stage
+        List<Feature> chosen = new ArrayList<>();
+        for (Feature feature : stage.getClassifierList()) {
+            chosen.add(new Feature(feature.getType(), feature.getX(), feature.getY(), feature.getWidth(), feature.getHeight()));
+        }
+        Stage replayed = Adaboost.learn(chosen, table, null);
+        assertEquals(replayed.getStageThreshold(), stage.getStageThreshold(), 0);
+        for (int i = 0; i < chosen.size(); i++) {
+            assertEquals(replayed.getClassifierList().get(i).getThreshold(), stage.getClassifierList().get(i).getThreshold(), 0);
+            assertEquals(replayed.getClassifierList().get(i).getPolarity(), stage.getClassifierList().get(i).getPolarity());
+        }
+        // the candidates are not touched
+        for (Feature candidate : candidates) {
+            assertEquals(0, candidate.getThreshold(), 0);
+            assertEquals(0, candidate.getError(), 0);
+            assertEquals(0, candidate.getWeight(), 0);
+        }
+    }
+
+    @Test
+    public void learn_whenNoCandidates() throws Exception {
+        // prepare
+        FeatureValueTable table = new FeatureValueTable(TrainingSet.load(Arrays.asList(new File("res/testImages/testImage1.png")),
+                Arrays.asList(new File("res/testImages/testImage2.png"))));
+
+        // execute
+        try {
+            Adaboost.learn(new ArrayList<Feature>(), 3, table, null);
+            fail("stage learnt without candidates");
+        } catch (IllegalArgumentException e) {
+            // verify
+            assertEquals("no candidate features", e.getMessage());
+        }
+    }
+
     @Test
     public void learn() throws Exception {
         // prepare
@@ -0,0 +1,155 @@
+package com.cs.comp7502.training;
+
+import com.cs.comp7502.classifier.Feature;
+import com.cs.comp7502.classifier.Stage;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FeatureValueStoreTest {
+
+    @Test
+    public void build() throws Exception {
+        // prepare
+        TrainingSet trainingSet = loadTrainingSet();
+        // features of every type and size, some with values beyond 16 bits
+        List<Feature> allFeatures = Feature.generateAllFeatures();
+        List<Feature> features = new ArrayList<>();
+        for (int i = 0; i < allFeatures.size(); i += 50) {
+            features.add(allFeatures.get(i));
+        }
+        File file = File.createTempFile("featureValues", ".bin");
+        file.deleteOnExit();
+        FeatureValueTable heap = new FeatureValueTable(trainingSet);
+
+        // execute
+        // small chunks so that the columns are spread over many mappings
+        FeatureValueStore store = FeatureValueStore.build(trainingSet, features, file, 4096);
+
+        // verify
+        assertEquals(features.size(), store.getFeatureCount());
+        assertEquals(trainingSet.size(), store.getSampleCount());
+        assertTrue(store.matches(trainingSet));
+        boolean wide = false;
+        for (Feature feature : features) {
+            FeatureValueTable.Column expected = heap.getColumn(feature);
+            // another instance with the same geometry finds the same column
+            FeatureValueTable.Column column = store.getColumn(new Feature(feature.getType(), feature.getX(), feature.getY(), feature.getWidth(), feature.getHeight()));
+            assertEquals(expected.size(), column.size());
+            for (int i = 0; i < column.size(); i++) {
+                assertEquals(expected.getValue(i), column.getValue(i));
+                assertEquals(expected.getSample(i), column.getSample(i));
+                wide |= Math.abs(column.getValue(i)) > Short.MAX_VALUE;
+            }
+        }
+        assertTrue(wide);
+        assertNull(store.getColumn(allFeatures.get(1)));
+    }
+
+    @Test
+    public void learn_whenStore() throws Exception {
+        // prepare
+        TrainingSet trainingSet = loadTrainingSet();
+        List<Feature> features = Feature.generateAllFeatures().subList(30000, 33000);
+        File file = File.createTempFile("featureValues", ".bin");
+        file.deleteOnExit();
+        FeatureValueTable mapped = new FeatureValueTable(trainingSet, FeatureValueStore.build(trainingSet, features, file));
+        FeatureValueTable heap = new FeatureValueTable(trainingSet);
+
+        // execute
+        Stage expected = Adaboost.learn(features, 5, heap, null);
+        Stage stage = Adaboost.learn(features, 5, mapped, null);
+
+        // verify
+        assertEquals(expected.getStageThreshold(), stage.getStageThreshold(), 0);
+        for (int i = 0; i < 5; i++) {
+            Feature expectedFeature = expected.getClassifierList().get(i);
+            Feature feature = stage.getClassifierList().get(i);
+            assertEquals(expectedFeature.getX(), feature.getX());
+            assertEquals(expectedFeature.getY(), feature.getY());
+            assertEquals(expectedFeature.getThreshold(), feature.getThreshold(), 0);
+            assertEquals(expectedFeature.getPolarity(), feature.getPolarity());
+        }
+    }
+
+    @Test
+    public void openOrBuild() throws Exception {
+        // prepare
+        TrainingSet trainingSet = loadTrainingSet();
+        TrainingSet otherSet = new TrainingSet(trainingSet.getFaces().subList(0, 50), trainingSet.getNonFaces());
+        List<Feature> features = Feature.generateAllFeatures().subList(0, 500);
+        File file = File.createTempFile("featureValues", ".bin");
+        file.deleteOnExit();
+        FeatureValueStore.build(trainingSet, features, file);
+        long length = file.length();
+
+        // execute
+        FeatureValueStore reused = FeatureValueStore.openOrBuild(trainingSet, features.subList(100, 200), file);
+        FeatureValueStore rebuilt = FeatureValueStore.openOrBuild(otherSet, features, file);
+
+        // verify
+        assertEquals(500, reused.getFeatureCount());
+        assertTrue(rebuilt.matches(otherSet));
+        assertFalse(rebuilt.matches(trainingSet));
+        assertTrue(file.length() < length);
+        try {
+            new FeatureValueTable(trainingSet, rebuilt);
+            fail("store of other samples accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void openOrBuild_whenTruncated() throws Exception {
+        // prepare
+        TrainingSet trainingSet = loadTrainingSet();
+        List<Feature> features = Feature.generateAllFeatures().subList(0, 500);
+        File truncated = File.createTempFile("featureValues", ".bin");
+        truncated.deleteOnExit();
+        FeatureValueStore.build(trainingSet, features, truncated);
+        try (RandomAccessFile file = new RandomAccessFile(truncated, "rw")) {
+            file.setLength(file.length() / 2);
+        }
+        // columns written but no header yet, as left by a build killed before the header
+        File headerless = File.createTempFile("featureValues", ".bin");
+        headerless.deleteOnExit();
+        Files.write(headerless.toPath(), new byte[4096]);
+        FeatureValueTable heap = new FeatureValueTable(trainingSet);
+
+        // execute
+        FeatureValueStore rebuilt = FeatureValueStore.openOrBuild(trainingSet, features, truncated);
+        FeatureValueStore built = FeatureValueStore.openOrBuild(trainingSet, features, headerless);
+
+        // verify
+        for (FeatureValueStore store : Arrays.asList(rebuilt, built)) {
+            assertEquals(500, store.getFeatureCount());
+            for (Feature feature : features) {
+                FeatureValueTable.Column column = store.getColumn(feature);
+                for (int i = 0; i < column.size(); i++) {
+                    assertEquals(heap.getColumn(feature).getValue(i), column.getValue(i));
+                    assertEquals(heap.getColumn(feature).getSample(i), column.getSample(i));
+                }
+            }
+        }
+        assertFalse(new File(truncated.getPath() + ".tmp").exists());
+        try {
+            FeatureValueStore.open(headerless);
+        } catch (IOException e) {
+            fail("rebuilt store not readable");
+        }
+    }
+
+    private static TrainingSet loadTrainingSet() {
+        return TrainingSet.load(Arrays.asList(new File("res/trainingSet/faces").listFiles()),
+                Arrays.asList(new File("res/trainingSet/nonFaces").listFiles()));
+    }
+}
@@ -41,4 +41,17 @@ public class ColourUtilsTest {
         assertEquals(expectedG, actualG);
     }
 
+    @Test
+    public void luminance() throws Exception {
+        // prepare
+        // execute
+        // verify
+        for (int r = 0; r < 256; r += 3) {
+            for (int g = 0; g < 256; g += 5) {
+                for (int b = 0; b < 256; b++) {
+                    assertEquals((int) Math.round((30 * r + 59 * g + 11 * b) / 100.0), ColourUtils.luminance(r, g, b));
+                }
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,154 @@
+package com.cs.comp7502.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FramePipelineTest {
+
+    @Test
+    public void start() throws Exception {
+        // prepare
+        FramePipeline<int[]> pipeline = new FramePipeline<>(2, false);
+        List<Integer> rendered = Collections.synchronizedList(new ArrayList<Integer>());
+        AtomicInteger next = new AtomicInteger();
+        pipeline.addStep("double", frame -> frame[1] = 2 * frame[0])
+                .addStep("render", frame -> rendered.add(frame[1]));
+
+        // execute
+        pipeline.start(() -> next.get() < 50 ? new int[]{next.getAndIncrement(), 0} : null);
+        pipeline.await();
+
+        // verify
+        assertEquals(50, rendered.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(2 * i, (int) rendered.get(i));
+        }
+        for (FramePipeline.StepStats stats : pipeline.getStats()) {
+            assertEquals(50, stats.getProcessed());
+            assertEquals(0, stats.getDropped());
+            assertEquals(0, stats.getQueueDepth());
+        }
+    }
+
+    @Test
+    public void start_whenDropOldest() throws Exception {
+        // prepare
+        FramePipeline<int[]> pipeline = new FramePipeline<>(1, true);
+        List<Integer> rendered = Collections.synchronizedList(new ArrayList<Integer>());
+        AtomicInteger next = new AtomicInteger();
+        pipeline.addStep("preprocess", frame -> {})
+                .addStep("detect", frame -> Thread.sleep(5))
+                .addStep("render", frame -> rendered.add(frame[0]));
+
+        // execute
+        pipeline.start(() -> next.get() < 200 ? new int[]{next.getAndIncrement()} : null);
+        pipeline.await();
+
+        // verify
+        long dropped = 0;
+        for (FramePipeline.StepStats stats : pipeline.getStats()) {
+            dropped += stats.getDropped();
+        }
+        assertTrue(dropped > 0);
+        assertEquals(200, rendered.size() + dropped);
+        for (int i = 1; i < rendered.size(); i++) {
+            assertTrue(rendered.get(i) > rendered.get(i - 1));
+        }
+        // the newest frame always reaches the end
+        assertEquals(199, (int) rendered.get(rendered.size() - 1));
+    }
+
+    @Test
+    public void start_whenDropListener() throws Exception {
+        // prepare
+        FramePipeline<int[]> pipeline = new FramePipeline<>(1, true);
+        List<Integer> rendered = Collections.synchronizedList(new ArrayList<Integer>());
+        List<Integer> dropped = Collections.synchronizedList(new ArrayList<Integer>());
+        AtomicInteger next = new AtomicInteger();
+        pipeline.addStep("detect", frame -> Thread.sleep(5))
+                .addStep("render", frame -> rendered.add(frame[0]))
+                .onDrop(frame -> dropped.add(frame[0]));
+
+        // execute
+        pipeline.start(() -> next.get() < 100 ? new int[]{next.getAndIncrement()} : null);
+        pipeline.await();
+
+        // verify
+        long droppedCount = 0;
+        for (FramePipeline.StepStats stats : pipeline.getStats()) {
+            droppedCount += stats.getDropped();
+        }
+        assertEquals(droppedCount, dropped.size());
+        // every frame is either rendered or handed back exactly once
+        List<Integer> all = new ArrayList<>(rendered);
+        all.addAll(dropped);
+        Collections.sort(all);
+        assertEquals(100, all.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (int) all.get(i));
+        }
+    }
+
+    @Test
+    public void start_whenStepsOverlap() throws Exception {
+        // prepare
+        FramePipeline<int[]> pipeline = new FramePipeline<>(4, false);
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        // opens once the three steps hold frames 2, 1 and 0 at the same time, which a serial loop never does
+        CountDownLatch allBusy = new CountDownLatch(3);
+        AtomicInteger met = new AtomicInteger();
+        String[] names = {"preprocess", "detect", "render"};
+        for (int i = 0; i < names.length; i++) {
+            final int step = i;
+            pipeline.addStep(names[step], frame -> {
+                maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                if (frame[0] + step == 2) {
+                    allBusy.countDown();
+                    if (allBusy.await(10, TimeUnit.SECONDS)) met.incrementAndGet();
+                }
+                active.decrementAndGet();
+            });
+        }
+
+        // execute
+        pipeline.start(() -> next.get() < 50 ? new int[]{next.getAndIncrement()} : null);
+        pipeline.await();
+
+        // verify
+        assertEquals(3, met.get());
+        assertEquals(3, maxActive.get());
+        for (FramePipeline.StepStats stats : pipeline.getStats()) {
+            assertEquals(50, stats.getProcessed());
+        }
+    }
+
+    @Test
+    public void await_whenStepThrows() throws Exception {
+        // prepare
+        FramePipeline<int[]> pipeline = new FramePipeline<>(2, false);
+        pipeline.addStep("detect", frame -> {
+            throw new IllegalStateException("no cascade");
+        });
+
+        // execute
+        pipeline.start(() -> new int[1]);
+
+        // verify
+        try {
+            pipeline.await();
+            fail("the failure of the step must be rethrown");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+}
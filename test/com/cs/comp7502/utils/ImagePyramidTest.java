@@ -0,0 +1,62 @@
+package com.cs.comp7502.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ImagePyramidTest {
+
+    @Test
+    public void build() throws Exception {
+        // prepare
+        int[][] image = new int[60][100];
+        for (int x = 0; x < 60; x++) {
+            // 2 pixel wide vertical stripes of 10 and 30
+            for (int y = 0; y < 100; y++) image[x][y] = (y / 2) % 2 == 0 ? 10 : 30;
+        }
+        ImagePyramid pyramid = new ImagePyramid(2);
+
+        // execute
+        pyramid.build(image, 24, false);
+
+        // verify
+        assertEquals(2, pyramid.getLevelCount());
+        assertEquals(100, pyramid.getIntegralImage(0).getWidth());
+        assertEquals(50, pyramid.getIntegralImage(1).getWidth());
+        assertEquals(30, pyramid.getIntegralImage(1).getHeight());
+        assertEquals(2.0, pyramid.getScale(1), 0.0001);
+        // every level pixel is the mean of the 2x2 pixels it covers
+        assertEquals(10, pyramid.getIntegralImage(1).sum(0, 0, 1, 1));
+        assertEquals(30, pyramid.getIntegralImage(1).sum(0, 1, 1, 1));
+        assertEquals(20 * 50 * 30, pyramid.getIntegralImage(1).sum(0, 0, 50, 30));
+    }
+
+    @Test
+    public void build_whenReused() throws Exception {
+        // prepare
+        int[][] image = new int[100][100];
+        for (int[] row : image) Arrays.fill(row, 8);
+        int[][] smaller = new int[50][60];
+        for (int[] row : smaller) Arrays.fill(row, 4);
+        ImagePyramid pyramid = new ImagePyramid(1.25);
+        pyramid.build(image, 24, true);
+        int levels = pyramid.getLevelCount();
+        IntegralImage first = pyramid.getIntegralImage(1);
+
+        // execute
+        pyramid.build(smaller, 24, false);
+        int smallerLevels = pyramid.getLevelCount();
+        pyramid.build(image, 24, true);
+
+        // verify
+        assertEquals(7, levels);
+        assertEquals(4, smallerLevels);
+        assertEquals(levels, pyramid.getLevelCount());
+        assertSame(first, pyramid.getIntegralImage(1));
+        IntegralImage last = pyramid.getIntegralImage(levels - 1);
+        assertEquals(8 * last.getWidth() * last.getHeight(), last.sum(0, 0, last.getWidth(), last.getHeight()));
+        assertEquals(64 * last.getWidth() * last.getHeight(), last.sumSquared(0, 0, last.getWidth(), last.getHeight()));
+    }
+}
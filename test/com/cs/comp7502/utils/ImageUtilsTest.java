@@ -34,4 +34,4 @@ public class ImageUtilsTest {
         // verify
         assertArrayEquals(expectedI, actual);
     }
-}
\ No newline at end of file
+}
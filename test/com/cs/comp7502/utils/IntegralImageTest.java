@@ -0,0 +1,104 @@
+package com.cs.comp7502.utils;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IntegralImageTest {
+
+    @Test
+    public void build() throws Exception {
+        // prepare
+        int[][] testI = new int[][] {
+                new int[] { 2,  2,  2,  2},
+                new int[] { 2,  2,  2,  2},
+                new int[] { 2,  2,  2,  2}
+        };
+
+        // execute
+        IntegralImage integralI = new IntegralImage(4, 3);
+        integralI.build(testI, true);
+
+        // verify
+        assertEquals(5, integralI.getStride());
+        assertEquals(2, integralI.get(0, 0));
+        assertEquals(24, integralI.get(2, 3));
+        assertEquals(12, integralI.sum(1, 1, 3, 2));
+        assertEquals(24, integralI.sumSquared(1, 1, 3, 2));
+        assertEquals(24, integralI.sum(0, 0, 4, 3));
+    }
+
+    @Test
+    public void sum_whenRandomImage() throws Exception {
+        // prepare
+        Random random = new Random(7502);
+        int[][] image = new int[30][40];
+        for (int[] row : image) {
+            for (int y = 0; y < row.length; y++) row[y] = random.nextInt(256);
+        }
+        int[][] expectedI = new int[30][40];
+        ImageUtils.buildIntegralImage(image, expectedI, 40, 30);
+
+        // execute
+        IntegralImage integralI = new IntegralImage(image);
+        IntegralImage wrapped = IntegralImage.fromIntegral(expectedI);
+
+        // verify
+        for (int x = 0; x < 30; x += 3) {
+            for (int y = 0; y < 40; y += 5) {
+                int expected = ImageUtils.sumIntegralImage(expectedI, x, y, 40 - y, 30 - x);
+                assertEquals(expected, integralI.sum(x, y, 40 - y, 30 - x));
+                assertEquals(expected, wrapped.sum(x, y, 40 - y, 30 - x));
+            }
+        }
+    }
+
+    @Test
+    public void resize() throws Exception {
+        // prepare
+        int[][] large = new int[10][10];
+        for (int[] row : large) java.util.Arrays.fill(row, 9);
+        int[][] small = new int[4][6];
+        for (int[] row : small) java.util.Arrays.fill(row, 1);
+        IntegralImage integralI = new IntegralImage(large);
+
+        // execute
+        integralI.resize(6, 4);
+        integralI.build(small, false);
+
+        // verify
+        assertEquals(7, integralI.getStride());
+        assertEquals(24, integralI.sum(0, 0, 6, 4));
+        assertEquals(1, integralI.sum(3, 5, 1, 1));
+        assertFalse(integralI.hasSquared());
+    }
+
+    @Test
+    public void buildFromBgr() throws Exception {
+        // prepare
+        Random random = new Random(7502);
+        BufferedImage image = new BufferedImage(40, 30, BufferedImage.TYPE_3BYTE_BGR);
+        for (int x = 0; x < 30; x++) {
+            for (int y = 0; y < 40; y++) image.setRGB(y, x, random.nextInt(0x1000000));
+        }
+        IntegralImage expected = new IntegralImage(40, 30);
+        expected.build(ImageUtils.buildImageArray(image, false), true);
+
+        // execute
+        IntegralImage integralI = new IntegralImage(40, 30);
+        integralI.buildFromBgr(((DataBufferByte) image.getRaster().getDataBuffer()).getData(), true);
+
+        // verify
+        assertTrue(integralI.hasSquared());
+        for (int x = 0; x < 30; x++) {
+            for (int y = 0; y < 40; y++) {
+                assertEquals(expected.get(x, y), integralI.get(x, y));
+                assertEquals(expected.sumSquared(0, 0, y + 1, x + 1), integralI.sumSquared(0, 0, y + 1, x + 1));
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.cs.comp7502.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MotionMaskTest {
+
+    @Test
+    public void update() throws Exception {
+        // prepare
+        int[][] still = new int[40][50];
+        int[][] moved = new int[40][50];
+        for (int x = 0; x < 40; x++) {
+            for (int y = 0; y < 50; y++) {
+                still[x][y] = 100;
+                moved[x][y] = x >= 20 && x < 30 && y >= 10 && y < 20 ? 200 : 100;
+            }
+        }
+        MotionMask motionMask = new MotionMask(10);
+
+        // execute
+        motionMask.update(new IntegralImage(still));
+        double firstRatio = motionMask.getMovingRatio();
+        motionMask.update(new IntegralImage(moved));
+
+        // verify
+        assertEquals(1, firstRatio, 0);
+        assertEquals(1.0 / 20, motionMask.getMovingRatio(), 1e-9);
+        assertTrue(motionMask.isMoving(20, 10, 10, 10));
+        assertTrue(motionMask.isMoving(15, 5, 6, 6));
+        assertTrue(motionMask.isMoving(0, 0, 50, 40));
+        assertFalse(motionMask.isMoving(0, 0, 24, 20));
+        assertFalse(motionMask.isMoving(20, 20, 24, 20));
+    }
+
+    @Test
+    public void update_whenReturningToBackground() throws Exception {
+        // prepare
+        int[][] still = new int[20][20];
+        int[][] moved = new int[20][20];
+        for (int x = 0; x < 20; x++) {
+            for (int y = 0; y < 20; y++) {
+                still[x][y] = 100;
+                moved[x][y] = 160;
+            }
+        }
+        MotionMask motionMask = new MotionMask(10);
+        motionMask.setLearningRate(0);
+
+        // execute
+        motionMask.update(new IntegralImage(still));
+        motionMask.update(new IntegralImage(moved));
+        motionMask.update(new IntegralImage(still));
+        boolean backAfterChange = motionMask.isMoving(0, 0, 20, 20);
+        motionMask.update(new IntegralImage(still));
+
+        // verify
+        assertTrue(backAfterChange);
+        assertFalse(motionMask.isMoving(0, 0, 20, 20));
+        assertEquals(0, motionMask.getMovingRatio(), 0);
+    }
+}
@@ -0,0 +1,40 @@
+package com.cs.comp7502.utils;
+
+import java.awt.*;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Time of {@link WindowGrouper} on 1k, 10k and 100k scattered windows and on hits piled on the faces of a frame.
+ *
+ * Timings depend on the machine, so this is a program run on demand rather than a unit test, WindowGrouperTest
+ * checks the number of comparisons instead:
+ * <pre>
+ * java com.cs.comp7502.utils.WindowGrouperBenchmark [rounds]
+ * </pre>
+ */
+public class WindowGrouperBenchmark {
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        WindowGrouper grouper = new WindowGrouper(0.5);
+        grouper.setMinNeighbours(2);
+
+        // the first round only warms up the JIT
+        for (int round = 0; round <= rounds; round++) {
+            StringBuilder line = new StringBuilder("round " + round);
+            for (int n : new int[] {1000, 10000, 100000}) {
+                line.append(time(grouper, WindowGrouperTest.buildWindows(n, new Random(n)), n + " windows"));
+            }
+            line.append(time(grouper, WindowGrouperTest.buildFaceHits(20000, new Random(2)), "20000 face hits"));
+            if (round > 0) System.out.println(line);
+        }
+    }
+
+    private static String time(WindowGrouper grouper, List<Rectangle> windows, String name) {
+        long time = System.nanoTime();
+        List<Rectangle> grouped = grouper.group(windows);
+        return String.format(", %s: %.1fms (%d groups, %d comparisons)", name, (System.nanoTime() - time) / 1e6, grouped.size(),
+                grouper.getComparisons());
+    }
+}
@@ -0,0 +1,189 @@
+package com.cs.comp7502.utils;
+
+import org.junit.Test;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class WindowGrouperTest {
+
+    @Test
+    public void group() throws Exception {
+        // prepare
+        List<Rectangle> windows = Arrays.asList(
+                new Rectangle(10, 10, 24, 24),
+                new Rectangle(100, 100, 24, 24),
+                new Rectangle(14, 12, 24, 24),
+                // only overlaps the window before it, still in the same group
+                new Rectangle(20, 16, 24, 24),
+                new Rectangle(104, 98, 30, 30),
+                new Rectangle(300, 10, 48, 48));
+        List<Rectangle> originals = new ArrayList<>();
+        for (Rectangle window : windows) {
+            originals.add(new Rectangle(window));
+        }
+        WindowGrouper grouper = new WindowGrouper(0.5);
+        WindowGrouper union = new WindowGrouper(0.5);
+        union.setMerge(WindowGrouper.Merge.UNION);
+
+        // execute
+        List<Rectangle> averaged = grouper.group(windows);
+        List<Rectangle> bounds = union.group(windows);
+        List<Rectangle> merged = ImageUtils.mergeWindows(windows, 0.5, 0);
+
+        // verify
+        assertEquals(Arrays.asList(new Rectangle(15, 13, 24, 24), new Rectangle(102, 99, 27, 27), new Rectangle(300, 10, 48, 48)), averaged);
+        assertEquals(Arrays.asList(new Rectangle(10, 10, 34, 30), new Rectangle(100, 98, 34, 30), new Rectangle(300, 10, 48, 48)), bounds);
+        assertEquals(bounds, merged);
+        assertEquals(originals, windows);
+    }
+
+    @Test
+    public void group_whenMinNeighboursAndWeights() throws Exception {
+        // prepare
+        List<Rectangle> windows = Arrays.asList(
+                new Rectangle(0, 0, 24, 24),
+                new Rectangle(4, 0, 24, 24),
+                new Rectangle(200, 200, 24, 24));
+        double[] weights = {1, 3, 1};
+        WindowGrouper grouper = new WindowGrouper(0.5);
+        grouper.setMinNeighbours(1);
+
+        // execute
+        List<Rectangle> grouped = grouper.group(windows, weights);
+
+        // verify
+        assertEquals(Arrays.asList(new Rectangle(3, 0, 24, 24)), grouped);
+    }
+
+    @Test
+    public void group_whenRandomWindows() throws Exception {
+        // prepare
+        List<Rectangle> windows = buildWindows(2000, new Random(3));
+        WindowGrouper grouper = new WindowGrouper(0.4);
+        grouper.setMerge(WindowGrouper.Merge.UNION);
+
+        // execute
+        List<Rectangle> grouped = grouper.group(windows);
+
+        // verify
+        assertEquals(groupPairwise(windows, 0.4), grouped);
+    }
+
+    @Test
+    public void group_whenDenseClusters() throws Exception {
+        // prepare
+        List<Rectangle> windows = buildFaceHits(3000, new Random(5));
+        WindowGrouper grouper = new WindowGrouper(0.5);
+        grouper.setMerge(WindowGrouper.Merge.UNION);
+
+        // execute
+        List<Rectangle> grouped = grouper.group(windows);
+
+        // verify
+        assertEquals(groupPairwise(windows, 0.5), grouped);
+    }
+
+    @Test
+    public void group_whenManyWindows() throws Exception {
+        // prepare
+        WindowGrouper grouper = new WindowGrouper(0.5);
+        grouper.setMinNeighbours(2);
+
+        for (int n : new int[] {1000, 10000, 100000}) {
+            List<Rectangle> windows = buildWindows(n, new Random(n));
+
+            // execute
+            List<Rectangle> grouped = grouper.group(windows);
+
+            // verify
+            assertFalse(grouped.isEmpty());
+            assertTrue(grouped.size() < n);
+            // a few overlap tests per window at every size, comparing every pair would be n * (n - 1) / 2
+            assertTrue(grouper.getComparisons() + " comparisons", grouper.getComparisons() < 20L * n);
+        }
+
+        // thousands of hits piled on each face are each compared about once
+        List<Rectangle> hits = buildFaceHits(20000, new Random(2));
+        List<Rectangle> faces = grouper.group(hits);
+        assertEquals(5, faces.size());
+        assertTrue(grouper.getComparisons() + " comparisons", grouper.getComparisons() < 2L * hits.size());
+    }
+
+    /**
+     * Clusters of about 20 jittered windows of a few sizes, like the raw hits around faces, on an image that grows with
+     * the number of windows, plus scattered single windows
+     */
+    static List<Rectangle> buildWindows(int n, Random random) {
+        int side = (int) Math.sqrt(n) * 40;
+        List<Rectangle> windows = new ArrayList<>();
+        while (windows.size() < n) {
+            int size = 24 + 6 * random.nextInt(20);
+            int x = random.nextInt(side);
+            int y = random.nextInt(side);
+            int count = random.nextInt(4) == 0 ? 1 : 20;
+            for (int i = 0; i < count && windows.size() < n; i++) {
+                int jitter = size / 4;
+                int s = size + random.nextInt(jitter + 1) - jitter / 2;
+                windows.add(new Rectangle(x + random.nextInt(jitter + 1), y + random.nextInt(jitter + 1), s, s));
+            }
+        }
+        return windows;
+    }
+
+    /**
+     * Hits of a detector around 5 faces of a 640x480 frame, at scales from 0.8 to 1.25 of the face and shifted by up to
+     * an eighth of their size
+     */
+    static List<Rectangle> buildFaceHits(int n, Random random) {
+        int[][] centres = {{100, 100}, {300, 120}, {500, 100}, {200, 350}, {450, 330}};
+        List<Rectangle> windows = new ArrayList<>();
+        while (windows.size() < n) {
+            int[] centre = centres[random.nextInt(centres.length)];
+            int size = (int) (80 * (0.8 + 0.45 * random.nextDouble()));
+            int jitter = size / 4;
+            windows.add(new Rectangle(centre[0] - size / 2 + random.nextInt(jitter + 1) - jitter / 2,
+                    centre[1] - size / 2 + random.nextInt(jitter + 1) - jitter / 2, size, size));
+        }
+        return windows;
+    }
+
+    /**
+     * Reference grouping comparing every pair of windows
+     */
+    private static List<Rectangle> groupPairwise(List<Rectangle> windows, double overlap) {
+        int n = windows.size();
+        int[] group = new int[n];
+        for (int i = 0; i < n; i++) {
+            group[i] = i;
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                Rectangle intersection = windows.get(i).intersection(windows.get(j));
+                if (intersection.isEmpty()) continue;
+                long smaller = Math.min((long) windows.get(i).width * windows.get(i).height, (long) windows.get(j).width * windows.get(j).height);
+                if ((long) intersection.width * intersection.height < overlap * smaller) continue;
+                int from = Math.max(group[i], group[j]);
+                int to = Math.min(group[i], group[j]);
+                for (int k = 0; k < n; k++) {
+                    if (group[k] == from) group[k] = to;
+                }
+            }
+        }
+        List<Rectangle> grouped = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if (group[i] != i) continue;
+            Rectangle bounds = new Rectangle(windows.get(i));
+            for (int j = i + 1; j < n; j++) {
+                if (group[j] == i) bounds.add(windows.get(j));
+            }
+            grouped.add(bounds);
+        }
+        return grouped;
+    }
+}